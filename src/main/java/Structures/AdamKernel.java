@@ -0,0 +1,52 @@
+package Structures;
+
+/**
+ * Fused, in-place Adam update over flat parameter buffers: each element's first and second moments and the
+ * parameter itself are updated in a single pass, vectorized by the {@link Kernels}. Long buffers are split into
+ * chunks that are updated in parallel.
+ * <p>
+ * The bias corrections only depend on the step, so {@link #setStep(int)} computes them once per optimizer step
+ * rather than once per element. A decay factor below one applies decoupled weight decay, as in AdamW.
+ * </p>
+ */
+public final class AdamKernel {
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+
+    private final double beta1, beta2, epsilon;
+    private int step;
+    private double firstMomentCorrection, secondMomentScale;
+
+    public AdamKernel(double beta1, double beta2, double epsilon) {
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * Sets the (1-based) step the following updates belong to.
+     */
+    public void setStep(int t) {
+        if (t <= 0) {
+            throw new IllegalArgumentException("Adam steps start at 1, got " + t);
+        }
+        if (t != step) {
+            step = t;
+            firstMomentCorrection = 1 - Math.pow(beta1, t);
+            secondMomentScale = 1 / (1 - Math.pow(beta2, t));
+        }
+    }
+
+    /**
+     * Updates elements [offset, offset + length) of param, m and v in place from the same elements of gradient.
+     *
+     * @param decay factor param is scaled by before the update; 1 for plain Adam
+     */
+    public void update(double[] param, double[] gradient, double[] m, double[] v, int offset, int length, double learningRate, double decay) {
+        if (step == 0) {
+            throw new IllegalStateException("setStep must be called before the first update.");
+        }
+        double stepSize = learningRate / firstMomentCorrection;
+        Kernels.forEachChunk(offset, length, (start, count) ->
+                KERNELS.adam(param, gradient, m, v, start, count, beta1, beta2, stepSize, secondMomentScale, epsilon, decay));
+    }
+}
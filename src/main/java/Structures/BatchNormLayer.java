@@ -1,5 +1,10 @@
 package Structures;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * Represents a Batch Normalization layer in a neural network.
  * <p>
@@ -9,6 +14,11 @@ package Structures;
  * </p>
  */
 public class BatchNormLayer extends Layer {
+    private static final long MIN_TASK_WORK = 1 << 14; // elements below which a task is not split further
+    private static final int TASKS_PER_THREAD = 4;     // over-decomposition so tasks still balance across threads
+    private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+
     private int depth, height, width;
     private double epsilon = 1e-5f;
     private double momentum = 0.99f;
@@ -17,10 +27,17 @@ public class BatchNormLayer extends Layer {
     public double[] beta;
     private double[] runningMean;
     private double[] runningVar;
+    private boolean training = true;
 
     private double[] dGamma;
     private double[] dBeta;
 
+    // Per (sample, channel) statistics and gradient sums, reused between batches
+    private transient double[] means, variances, gradientSums;
+
+    // Gamma and beta with their gradients and Adam moments, as seen by optimizers
+    private transient List<ParameterBlock> parameterBlocks;
+
     // [2][depth]
     public double[][] m; // First moment estimates for gamma and beta
     public double[][] v; // Second moment estimates for gamma and beta
@@ -36,6 +53,7 @@ public class BatchNormLayer extends Layer {
         beta = new double[depth];
         runningMean = new double[depth];
         runningVar = new double[depth];
+        Arrays.fill(runningVar, 1);
         dGamma = new double[depth];
         dBeta = new double[depth];
 
@@ -51,50 +69,139 @@ public class BatchNormLayer extends Layer {
     @Override
     public Object compute(Object input) {
         if (input instanceof Tensor inputTensor) {
-            return computeTensor(inputTensor);
+            Tensor[] outputs = Tensor.newBatch(1, depth, height, width);
+            computeInto(new Tensor[]{inputTensor}, outputs);
+            return outputs[0];
+        } else if (input instanceof Tensor[] inputTensors) {
+            Tensor[] outputs = Tensor.newBatch(inputTensors.length, depth, height, width);
+            computeInto(inputTensors, outputs);
+            return outputs;
         } else if (input instanceof MatrixDouble inputMatrix) {
-            return computeMatrix(inputMatrix);
+            if (inputMatrix.getCols() == 1) {
+                return computeMatrix(inputMatrix);
+            }
+            // Each column is a separate sample and is normalized on its own
+            MatrixDouble output = new MatrixDouble(inputMatrix.getRows(), inputMatrix.getCols());
+            for (int c = 0; c < inputMatrix.getCols(); c++) {
+                output.setColumn(c, computeMatrix(inputMatrix.getColumn(c)));
+            }
+            return output;
         } else {
-            throw new IllegalArgumentException("Expected input to be a Tensor or MatrixDouble.");
+            throw new IllegalArgumentException("Expected input to be a Tensor, Tensor[] or MatrixDouble.");
         }
     }
 
-    private Tensor computeTensor(Tensor inputTensor) {
-        Tensor outputTensor = new Tensor(depth, height, width);
-
-        for (int d = 0; d < depth; d++) {
-            double mean = 0, variance = 0;
-            int count = height * width;
+    /**
+     * Normalizes every channel of every sample, with (sample, channel) pairs running in parallel. In training mode
+     * each channel's statistics come from a single pass over it; the running statistics are then updated
+     * sample by sample, in order. In inference mode the frozen running statistics are used.
+     * Every element of the preallocated outputs is overwritten.
+     */
+    void computeInto(Tensor[] inputs, Tensor[] outputs) {
+        computeInto(inputs, outputs, training);
+    }
 
-            for (int h = 0; h < height; h++) {
-                for (int w = 0; w < width; w++) {
-                    mean += inputTensor.get(d, h, w);
-                }
+    /**
+     * {@link #computeInto(Tensor[], Tensor[])} in the given mode rather than the layer's own. In inference mode
+     * nothing of the layer is written, so several threads can normalize through it at once.
+     */
+    void computeInto(Tensor[] inputs, Tensor[] outputs, boolean training) {
+        if (outputs.length != inputs.length) {
+            throw new IllegalArgumentException("Expected " + inputs.length + " outputs, got " + outputs.length);
+        }
+        for (Tensor input : inputs) {
+            if (input.getDepth() != depth || input.getHeight() != height || input.getWidth() != width) {
+                throw new IllegalArgumentException("Expected input of " + depth + "x" + height + "x" + width + ", got " + input.getDepth() + "x" + input.getHeight() + "x" + input.getWidth());
             }
-            mean /= count;
+        }
 
-            for (int h = 0; h < height; h++) {
-                for (int w = 0; w < width; w++) {
-                    double diff = inputTensor.get(d, h, w) - mean;
-                    variance += diff * diff;
-                }
-            }
-            variance /= count;
+        int pairs = inputs.length * depth;
+        if (!training) {
+            runTask(new NormalizeTask(inputs, outputs, null, null, 0, pairs, taskGrain((long) pairs * height * width)));
+            return;
+        }
+        if (means == null || means.length < pairs) {
+            means = new double[pairs];
+            variances = new double[pairs];
+        }
+        runTask(new NormalizeTask(inputs, outputs, means, variances, 0, pairs, taskGrain((long) pairs * height * width)));
 
-            runningMean[d] = momentum * runningMean[d] + (1 - momentum) * mean;
-            runningVar[d] = momentum * runningVar[d] + (1 - momentum) * variance;
+        for (int p = 0; p < pairs; p++) {
+            int d = p % depth;
+            runningMean[d] = momentum * runningMean[d] + (1 - momentum) * means[p];
+            runningVar[d] = momentum * runningVar[d] + (1 - momentum) * variances[p];
+        }
+    }
 
-            // Normalize and scale
-            double stdDev = Math.sqrt(variance + epsilon);
-            for (int h = 0; h < height; h++) {
-                for (int w = 0; w < width; w++) {
-                    double normalized = (inputTensor.get(d, h, w) - mean) / stdDev;
-                    outputTensor.set(d, h, w, gamma[d] * normalized + beta[d]);
+    /**
+     * Normalizes channel d of one sample's flat buffer into out. In training mode (means is not null) the channel's
+     * mean and (population) variance are first stored at index pair of means and variances; otherwise the running
+     * statistics are used.
+     */
+    private void normalizeChannel(double[] in, double[] out, int d, double[] means, double[] variances, int pair) {
+        int start = d * height * width, end = start + height * width;
+        double mean, variance;
+        if (means != null) {
+            // Chan et al.'s pairwise update: each row's mean and squared deviations are computed while it is in cache,
+            // then merged into the running totals, so the channel is read once and stays numerically stable
+            double count = 0, m2 = 0;
+            mean = 0;
+            for (int rowStart = start; rowStart < end; rowStart += width) {
+                double rowMean = KERNELS.sum(in, rowStart, width) / width;
+                double rowM2 = 0;
+                for (int i = rowStart; i < rowStart + width; i++) {
+                    double diff = in[i] - rowMean;
+                    rowM2 += diff * diff;
                 }
+                double delta = rowMean - mean;
+                double total = count + width;
+                mean += delta * width / total;
+                m2 += rowM2 + delta * delta * count * width / total;
+                count = total;
             }
+            variance = m2 / count;
+            means[pair] = mean;
+            variances[pair] = variance;
+        } else {
+            mean = runningMean[d];
+            variance = runningVar[d];
         }
 
-        return outputTensor;
+        // Centre before scaling so channels with a large offset do not lose precision
+        double scale = gamma[d] / Math.sqrt(variance + epsilon);
+        for (int i = start; i < end; i++) {
+            out[i] = scale * (in[i] - mean) + beta[d];
+        }
+    }
+
+    private double inferenceScale(int channel) {
+        return gamma[channel] / Math.sqrt(runningVar[channel] + epsilon);
+    }
+
+    /**
+     * Whether this layer can be folded into previous: a ConvLayer producing this layer's channels with a linear
+     * activation, so the per-channel affine transform can be moved in front of the activation exactly.
+     */
+    boolean canFoldInto(Layer previous) {
+        return previous instanceof ConvLayer conv && conv.getActivationFunction().isIdentity() && conv.getNumFilters() == depth;
+    }
+
+    /**
+     * Folds the inference transform into conv (see {@link #canFoldInto(Layer)}): filter f is scaled by
+     * {@code gamma / sqrt(runningVar + epsilon)} and its bias becomes {@code scale * (bias - runningMean) + beta}.
+     */
+    void foldInto(ConvLayer conv) {
+        if (!canFoldInto(conv)) {
+            throw new IllegalArgumentException("Batch normalization can only be folded into a ConvLayer with a linear activation and " + depth + " filters.");
+        }
+        for (int f = 0; f < depth; f++) {
+            double scale = inferenceScale(f);
+            int weights = conv.getInputDepth() * conv.getFilterSize() * conv.getFilterSize();
+            int start = conv.filterIndex(f, 0, 0, 0);
+            KERNELS.scale(conv.filters, scale, conv.filters, start, weights);
+            conv.biases[f] = scale * (conv.biases[f] - runningMean[f]) + beta[f];
+        }
+        conv.parametersUpdated();
     }
 
     private MatrixDouble computeMatrix(MatrixDouble inputMatrix) {
@@ -118,50 +225,81 @@ public class BatchNormLayer extends Layer {
 
     @Override
     public Object backpropagate(Object input, Object gradientOutput) {
+        // Gradients are accumulated over the samples of this batch only
+        Arrays.fill(dGamma, 0);
+        Arrays.fill(dBeta, 0);
+
         if (input instanceof Tensor inputTensor && gradientOutput instanceof Tensor gradOutputTensor) {
-            return backpropagateTensor(inputTensor, gradOutputTensor);
+            Tensor[] gradientInputs = Tensor.newBatch(1, depth, height, width);
+            backpropagateInto(new Tensor[]{inputTensor}, new Tensor[]{gradOutputTensor}, gradientInputs);
+            return gradientInputs[0];
+        } else if (input instanceof Tensor[] inputTensors && gradientOutput instanceof Tensor[] gradOutputTensors) {
+            if (inputTensors.length != gradOutputTensors.length) {
+                throw new IllegalArgumentException("Input and gradientOutput must have the same batch size (" + inputTensors.length + "!=" + gradOutputTensors.length + ")");
+            }
+            Tensor[] gradientInputs = Tensor.newBatch(inputTensors.length, depth, height, width);
+            backpropagateInto(inputTensors, gradOutputTensors, gradientInputs);
+            return gradientInputs;
         } else if (input instanceof MatrixDouble inputMatrix && gradientOutput instanceof MatrixDouble gradOutputMatrix) {
-            return backpropagateMatrix(inputMatrix, gradOutputMatrix);
+            if (inputMatrix.getCols() == 1) {
+                return backpropagateMatrix(inputMatrix, gradOutputMatrix);
+            }
+            MatrixDouble gradInput = new MatrixDouble(inputMatrix.getRows(), inputMatrix.getCols());
+            for (int c = 0; c < inputMatrix.getCols(); c++) {
+                gradInput.setColumn(c, backpropagateMatrix(inputMatrix.getColumn(c), gradOutputMatrix.getColumn(c)));
+            }
+            return gradInput;
         } else {
-            throw new IllegalArgumentException("Expected input and gradientOutput to be a Tensor or MatrixDouble.");
+            throw new IllegalArgumentException("Expected input and gradientOutput to be a Tensor, Tensor[] or MatrixDouble.");
         }
     }
 
-    private Tensor backpropagateTensor(Tensor inputTensor, Tensor gradOutputTensor) {
-        int N = inputTensor.getHeight() * inputTensor.getWidth();
-        Tensor gradInputTensor = new Tensor(depth, height, width);
-
-        for (int d = 0; d < depth; d++) {
-            double mean = runningMean[d];
-            double variance = runningVar[d];
-            double stdDev = Math.sqrt(variance + epsilon);
+    /**
+     * Input gradients for every (sample, channel) pair in parallel. dGamma and dBeta are reduced from per-pair
+     * partial sums afterwards, in sample order. The preallocated input gradients are overwritten.
+     */
+    void backpropagateInto(Tensor[] inputs, Tensor[] gradientOutputs, Tensor[] gradientInputs) {
+        Arrays.fill(dGamma, 0);
+        Arrays.fill(dBeta, 0);
+
+        int pairs = inputs.length * depth;
+        if (gradientSums == null || gradientSums.length < pairs) {
+            gradientSums = new double[pairs];
+        }
+        runTask(new GradientTask(inputs, gradientOutputs, gradientInputs, gradientSums, 0, pairs, taskGrain((long) pairs * height * width)));
 
-            double dMean = 0, dVar = 0;
+        for (int p = 0; p < pairs; p++) {
+            int d = p % depth;
+            dGamma[d] += gradientSums[p] / Math.sqrt(runningVar[d] + epsilon);
+            dBeta[d] += gradientSums[p];
+        }
+    }
 
-            for (int h = 0; h < height; h++) {
-                for (int w = 0; w < width; w++) {
-                    dMean += gradOutputTensor.get(d, h, w);
-                    dVar += (inputTensor.get(d, h, w) - mean) * gradOutputTensor.get(d, h, w);
-                }
-            }
+    /**
+     * Gradient of channel d of one sample: a single sweep gathers both reductions, a second writes the input gradient.
+     * Returns the sum of the channel's output gradient.
+     */
+    private double backpropagateChannel(double[] in, double[] gradOut, double[] gradIn, int d) {
+        int N = height * width;
+        int start = d * N, end = start + N;
+        double mean = runningMean[d];
+        double variance = runningVar[d];
+        double stdDev = Math.sqrt(variance + epsilon);
 
-            dMean /= N;
-            dVar *= -0.5 / (variance + epsilon);
+        double gradientSum = 0, dVar = 0;
+        for (int i = start; i < end; i++) {
+            gradientSum += gradOut[i];
+            dVar += (in[i] - mean) * gradOut[i];
+        }
 
-            for (int h = 0; h < height; h++) {
-                for (int w = 0; w < width; w++) {
-                    double input = inputTensor.get(d, h, w);
-                    double grad = gradOutputTensor.get(d, h, w);
-                    double dInput = grad / stdDev + dVar * 2 * (input - mean) / N + dMean;
-                    gradInputTensor.set(d, h, w, dInput);
-                }
-            }
+        double dMean = gradientSum / N;
+        dVar *= -0.5 / (variance + epsilon);
+        double inverseStdDev = 1 / stdDev, inputScale = dVar * 2 / N;
 
-            dGamma[d] += gradOutputTensor.getSum() / stdDev;
-            dBeta[d] += gradOutputTensor.getSum();
+        for (int i = start; i < end; i++) {
+            gradIn[i] = gradOut[i] * inverseStdDev + inputScale * (in[i] - mean) + dMean;
         }
-
-        return gradInputTensor;
+        return gradientSum;
     }
 
     private MatrixDouble backpropagateMatrix(MatrixDouble inputMatrix, MatrixDouble gradOutputMatrix) {
@@ -174,7 +312,7 @@ public class BatchNormLayer extends Layer {
         double stdDev = Math.sqrt(variance + epsilon);
 
         MatrixDouble inputMinusMean = MatrixDouble.subtract(inputMatrix, mean);
-        MatrixDouble multipliedMatrix = MatrixDouble.multiply(gradOutputMatrix, inputMinusMean.transpose());
+        MatrixDouble multipliedMatrix = MatrixDouble.multiplyTransB(gradOutputMatrix, inputMinusMean);
         double dVar = -0.5 / (variance + epsilon) * multipliedMatrix.getSum();
 
         double dMean = gradOutputMatrix.getSum() / (rows * cols);
@@ -195,6 +333,116 @@ public class BatchNormLayer extends Layer {
         return gradInputMatrix;
     }
 
+    /**
+     * Smallest number of elements worth a separate task, given the total and the pool's parallelism.
+     * With a single thread the whole job is one task.
+     */
+    private static long taskGrain(long totalWork) {
+        int parallelism = POOL.getParallelism();
+        if (parallelism <= 1) {
+            return totalWork;
+        }
+        return Math.max(MIN_TASK_WORK, totalWork / ((long) parallelism * TASKS_PER_THREAD));
+    }
+
+    /**
+     * Runs a task on the calling thread when it will not split, otherwise in the pool.
+     */
+    private static void runTask(RecursiveAction task) {
+        if (POOL.getParallelism() <= 1) {
+            task.invoke();
+        } else {
+            POOL.invoke(task);
+        }
+    }
+
+    /**
+     * Normalizes a range of (sample, channel) pairs, pair p being channel {@code p % depth} of sample {@code p / depth}.
+     */
+    private class NormalizeTask extends RecursiveAction {
+        private final Tensor[] inputs, outputs;
+        private final double[] means, variances;
+        private final int startPair, endPair;
+        private final long grain;
+
+        NormalizeTask(Tensor[] inputs, Tensor[] outputs, double[] means, double[] variances, int startPair, int endPair, long grain) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.means = means;
+            this.variances = variances;
+            this.startPair = startPair;
+            this.endPair = endPair;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) (endPair - startPair) * height * width <= grain || endPair - startPair == 1) {
+                for (int p = startPair; p < endPair; p++) {
+                    int b = p / depth, d = p % depth;
+                    normalizeChannel(inputs[b].getData(), outputs[b].getData(), d, means, variances, p);
+                }
+            } else {
+                int midPair = (startPair + endPair) / 2;
+                invokeAll(
+                        new NormalizeTask(inputs, outputs, means, variances, startPair, midPair, grain),
+                        new NormalizeTask(inputs, outputs, means, variances, midPair, endPair, grain)
+                );
+            }
+        }
+    }
+
+    /**
+     * Backpropagates a range of (sample, channel) pairs, storing each pair's output gradient sum in gradientSums.
+     */
+    private class GradientTask extends RecursiveAction {
+        private final Tensor[] inputs, gradientOutputs, gradientInputs;
+        private final double[] gradientSums;
+        private final int startPair, endPair;
+        private final long grain;
+
+        GradientTask(Tensor[] inputs, Tensor[] gradientOutputs, Tensor[] gradientInputs, double[] gradientSums,
+                     int startPair, int endPair, long grain) {
+            this.inputs = inputs;
+            this.gradientOutputs = gradientOutputs;
+            this.gradientInputs = gradientInputs;
+            this.gradientSums = gradientSums;
+            this.startPair = startPair;
+            this.endPair = endPair;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) (endPair - startPair) * height * width <= grain || endPair - startPair == 1) {
+                for (int p = startPair; p < endPair; p++) {
+                    int b = p / depth, d = p % depth;
+                    gradientSums[p] = backpropagateChannel(inputs[b].getData(), gradientOutputs[b].getData(),
+                            gradientInputs[b].getData(), d);
+                }
+            } else {
+                int midPair = (startPair + endPair) / 2;
+                invokeAll(
+                        new GradientTask(inputs, gradientOutputs, gradientInputs, gradientSums, startPair, midPair, grain),
+                        new GradientTask(inputs, gradientOutputs, gradientInputs, gradientSums, midPair, endPair, grain)
+                );
+            }
+        }
+    }
+
+    /**
+     * In inference mode Tensor inputs are normalized with the frozen running statistics, which are no longer updated.
+     * Dense (MatrixDouble) inputs keep no running statistics and are always normalized on their own.
+     */
+    @Override
+    public void setTraining(boolean training) {
+        this.training = training;
+    }
+
+    public boolean isTraining() {
+        return training;
+    }
+
     @Override
     public void updateParameters(double learningRate) {
         for (int d = 0; d < depth; d++) {
@@ -235,6 +483,7 @@ public class BatchNormLayer extends Layer {
         target.width = this.width;
         target.epsilon = this.epsilon;
         target.momentum = this.momentum;
+        target.training = this.training;
     }
 
     @Override
@@ -253,6 +502,27 @@ public class BatchNormLayer extends Layer {
         return depth;
     }
 
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public List<ParameterBlock> getParameterBlocks() {
+        if (parameterBlocks == null) {
+            // Row 0 of the moments belongs to gamma, row 1 to beta; the running statistics follow the target updates
+            parameterBlocks = List.of(
+                    new ParameterBlock(gamma, dGamma, m[0], v[0], false),
+                    new ParameterBlock(beta, dBeta, m[1], v[1], false),
+                    ParameterBlock.nonTrainable(runningMean),
+                    ParameterBlock.nonTrainable(runningVar));
+        }
+        return parameterBlocks;
+    }
+
     public double[] getGradientGamma() {
         return dGamma;
     }
@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
 
 /**
  * Represents a convolutional layer in a neural network.
@@ -17,10 +18,14 @@ import java.util.concurrent.RecursiveAction;
  * </p>
  */
 public class ConvLayer extends Layer {
-    private static final int PARALLELISM_THRESHOLD = 32;   // threshold for parallelizing loops - increase value for weaker systems
+    private static final long MIN_TASK_WORK = 1 << 14;     // multiply-adds below which a task is not split further - increase value for weaker systems
+    private static final int TASKS_PER_THREAD = 4;         // over-decomposition so uneven tasks still balance across threads
     private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+    private static final long IM2COL_MAX_ELEMENTS = 1L << 22; // largest column buffer (in doubles) a layer keeps for im2col
+    private static final int WINOGRAD_MIN_CHANNELS = 8;       // below this the 16 Winograd GEMMs are too shallow to beat im2col
 
-    public double[][][][] filters; // [numFilters][depth][height][width]
+    public double[] filters; // [numFilters][depth][height][width], flat row-major (see filterIndex)
     public double[] biases; // [numFilters]
     private int strideX, strideY;
     private int paddingX, paddingY;
@@ -31,8 +36,8 @@ public class ConvLayer extends Layer {
     int inputDepth;
     private int outputWidth, outputHeight;
 
-    public double[][][][] m;
-    public double[][][][] v;
+    public double[] m; // Adam moments, laid out like filters
+    public double[] v;
     public double[] mBias;
     public double[] vBias;
 
@@ -42,9 +47,35 @@ public class ConvLayer extends Layer {
 
     private int timestep = 0;
 
-    private double[][][][] gradientFilters;
+    private double[] gradientFilters;
     private double[] gradientBiases;
 
+    // im2col scratch, reused between calls: filters as a [numFilters x patchSize] matrix and the backward pass buffers
+    private transient MatrixDouble filterMatrix, biasMatrix;
+    private transient MatrixDouble delta, gradientColumns, gradientFilterMatrix, gradientBiasMatrix;
+
+    // Winograd F(2x2, 3x3) state: transformed filters (one [numFilters x inputDepth] matrix per tile position),
+    // cached until the parameters change, and per-position scratch for the gradients
+    private transient MatrixDouble[] winogradFilters;
+    private transient MatrixDouble[] winogradProductGradients, winogradFilterGradients, winogradInputGradients;
+
+    // Forward scratch used by compute and backpropagate; inference plans bring their own
+    private transient Workspace workspace;
+
+    /**
+     * Scratch written by a forward pass: the im2col columns (one patch column per output pixel) with the GEMM
+     * output, and the per-position Winograd inputs and products. Forward passes on different threads can run
+     * concurrently as long as each uses its own workspace and no parameters change meanwhile.
+     */
+    static final class Workspace {
+        private MatrixDouble columns, convOutput;
+        private MatrixDouble[] winogradInputs, winogradProducts;
+    }
+    private transient boolean winogradFiltersStale = true;
+
+    // Filters and biases with their gradients and Adam moments, as seen by optimizers
+    private transient List<ParameterBlock> parameterBlocks;
+
     public void setClipValue(double clipValue) {
         this.clipValue = clipValue;
     }
@@ -56,23 +87,12 @@ public class ConvLayer extends Layer {
         if (!(targetLayer instanceof ConvLayer target)) {
             throw new IllegalArgumentException(String.format("Target layer must be a ConvLayer (got: %s)", targetLayer.getClass().getSimpleName()));
         }
-        for (int f = 0; f < this.filters.length; f++) {
-            for (int d = 0; d < this.filters[f].length; d++) {
-                for (int h = 0; h < this.filters[f][d].length; h++) {
-                    System.arraycopy(this.filters[f][d][h], 0, target.filters[f][d][h], 0, this.filters[f][d][h].length);
-                }
-            }
-        }
-        for (int f = 0; f < this.gradientFilters.length; f++) {
-            for (int d = 0; d < this.gradientFilters[f].length; d++) {
-                for (int h = 0; h < this.gradientFilters[f][d].length; h++) {
-                    System.arraycopy(this.gradientFilters[f][d][h], 0, target.gradientFilters[f][d][h], 0, this.gradientFilters[f][d][h].length);
-                }
-            }
-        }
+        System.arraycopy(this.filters, 0, target.filters, 0, this.filters.length);
+        System.arraycopy(this.gradientFilters, 0, target.gradientFilters, 0, this.gradientFilters.length);
 
         System.arraycopy(this.biases, 0, target.biases, 0, this.biases.length);
         System.arraycopy(this.gradientBiases, 0, target.gradientBiases, 0, this.gradientBiases.length);
+        target.parametersUpdated();
 
         if (ignorePrimitives) return;
 
@@ -115,11 +135,18 @@ public class ConvLayer extends Layer {
         this.outputSize = outputWidth * outputHeight * numFilters;
 
         // Initialize filters and biases
-        filters = new double[numFilters][inputDepth][filterSize][filterSize];
+        int weightCount = numFilters * patchSize();
+        filters = new double[weightCount];
         biases = new double[numFilters];
-        gradientFilters = new double[numFilters][inputDepth][filterSize][filterSize];
+        gradientFilters = new double[weightCount];
         gradientBiases = new double[numFilters];
 
+        // Adam parameters
+        m = new double[weightCount];
+        v = new double[weightCount];
+        mBias = new double[numFilters];
+        vBias = new double[numFilters];
+
         if (args.length > 0) {
             List<String> argList = List.of(args);
 
@@ -129,46 +156,504 @@ public class ConvLayer extends Layer {
         }
 
         initializeParameters();
-
-        // Initialize Adam parameters
-        m = new double[numFilters][inputDepth][filterSize][filterSize];
-        v = new double[numFilters][inputDepth][filterSize][filterSize];
-        mBias = new double[numFilters];
-        vBias = new double[numFilters];
     }
 
     private void initializeParameters() {
         // He initialization (for ReLU)
         double stdDev = Math.sqrt(2.0 / (inputDepth * filterSize * filterSize));
         for (int i = 0; i < filters.length; i++) {
-            for (int j = 0; j < filters[i].length; j++) {
-                for (int k = 0; k < filters[i][j].length; k++) {
-                    for (int l = 0; l < filters[i][j][k].length; l++) {
-                        filters[i][j][k][l] = math.randomDouble(-stdDev, stdDev);
+            filters[i] = math.randomDouble(-stdDev, stdDev);
+        }
+
+        Arrays.fill(biases, 0);
+    }
+
+    @Override
+    public Object compute(Object input) {
+        if (input instanceof Tensor tensorInput) {
+            Tensor[] outputs = Tensor.newBatch(1, numFilters, outputHeight, outputWidth);
+            computeInto(new Tensor[]{tensorInput}, outputs);
+            return outputs[0];
+        }
+        if (!(input instanceof Tensor[] batch)) {
+            throw new IllegalArgumentException("Expected input to be a Tensor or Tensor[], instead got: " + input.getClass().getSimpleName());
+        }
+        Tensor[] outputs = Tensor.newBatch(batch.length, numFilters, outputHeight, outputWidth);
+        computeInto(batch, outputs);
+        return outputs;
+    }
+
+    /**
+     * Forward pass of a batch into preallocated outputs of shape [numFilters x outputHeight x outputWidth],
+     * every element of which is overwritten.
+     */
+    void computeInto(Tensor[] batch, Tensor[] outputs) {
+        computeInto(batch, outputs, workspace());
+    }
+
+    /**
+     * {@link #computeInto(Tensor[], Tensor[])} using the given scratch instead of the layer's own.
+     */
+    void computeInto(Tensor[] batch, Tensor[] outputs, Workspace workspace) {
+        if (outputs.length != batch.length) {
+            throw new IllegalArgumentException("Expected " + batch.length + " outputs, got " + outputs.length);
+        }
+        for (Tensor tensorInput : batch) {
+            if (tensorInput.getDepth() != inputDepth || tensorInput.getHeight() != inputHeight || tensorInput.getWidth() != inputWidth) {
+                throw new IllegalArgumentException("Input dimensions do not match expected dimensions: Expected: (" + inputDepth + ", " + inputHeight + ", " + inputWidth + "), Got: (" + tensorInput.getDepth() + ", " + tensorInput.getHeight() + ", " + tensorInput.getWidth() + ")");
+            }
+        }
+
+        int winogradChunk = winogradChunkSize(batch.length);
+        if (winogradChunk > 0) {
+            refreshWinogradFilters();
+            for (int start = 0; start < batch.length; start += winogradChunk) {
+                computeWinograd(workspace, batch, outputs, start, Math.min(winogradChunk, batch.length - start));
+            }
+            return;
+        }
+
+        int chunk = im2colChunkSize(batch.length);
+        if (chunk == 0) {
+            // A single sample's column buffer would be too large, convolve directly
+            long work = (long) batch.length * numFilters * outputHeight * outputWidth * patchSize();
+            runTask(new ComputeTask(batch, outputs, 0, batch.length, 0, numFilters, 0, outputHeight, taskGrain(work)));
+            return;
+        }
+
+        packFilters();
+        int pixels = outputHeight * outputWidth;
+        for (int start = 0; start < batch.length; start += chunk) {
+            int count = Math.min(chunk, batch.length - start);
+            MatrixDouble columns = im2col(workspace, batch, start, count);
+
+            // [numFilters x (count * pixels)] = phi(filters * columns + biases), in one fused GEMM
+            MatrixDouble convOutput = workspace.convOutput = MatrixDouble.ensureShape(workspace.convOutput, numFilters, count * pixels);
+            MatrixDouble.multiplyAddActivateInto(filterMatrix, columns, biasMatrix, activationFunction, convOutput);
+
+            double[] out = convOutput.getData();
+            for (int s = 0; s < count; s++) {
+                // Each filter's pixels of one sample are contiguous in both layouts
+                double[] output = outputs[start + s].getData();
+                for (int f = 0; f < numFilters; f++) {
+                    System.arraycopy(out, f * count * pixels + s * pixels, output, f * pixels, pixels);
+                }
+            }
+        }
+    }
+
+    /**
+     * Smallest amount of work (in multiply-adds) worth a separate task, given the total work and the pool's parallelism.
+     * With a single thread the whole job is one task.
+     */
+    private static long taskGrain(long totalWork) {
+        int parallelism = POOL.getParallelism();
+        if (parallelism <= 1) {
+            return totalWork;
+        }
+        return Math.max(MIN_TASK_WORK, totalWork / ((long) parallelism * TASKS_PER_THREAD));
+    }
+
+    /**
+     * Runs a task on the calling thread when it will not split, otherwise in the pool.
+     */
+    private static void runTask(RecursiveAction task) {
+        if (POOL.getParallelism() <= 1) {
+            task.invoke();
+        } else {
+            POOL.invoke(task);
+        }
+    }
+
+    private int patchSize() {
+        return inputDepth * filterSize * filterSize;
+    }
+
+    /**
+     * Number of samples whose im2col columns fit in one buffer, or 0 if not even one sample fits.
+     */
+    private int im2colChunkSize(int batchSize) {
+        long perSample = (long) patchSize() * outputHeight * outputWidth;
+        return (int) Math.min(batchSize, IM2COL_MAX_ELEMENTS / perSample);
+    }
+
+    /**
+     * Copies the filters into the [numFilters x patchSize] matrix used by the GEMM, and the biases into a column.
+     * Rows follow the patch order (d, k, l) used by {@link #im2col}.
+     */
+    private synchronized void packFilters() {
+        int patch = patchSize();
+        filterMatrix = MatrixDouble.ensureShape(filterMatrix, numFilters, patch);
+        biasMatrix = MatrixDouble.ensureShape(biasMatrix, numFilters, 1);
+        // The flat filters already have this layout
+        System.arraycopy(filters, 0, filterMatrix.getData(), 0, numFilters * patch);
+        System.arraycopy(biases, 0, biasMatrix.getData(), 0, numFilters);
+    }
+
+    /**
+     * Lowers count samples into the column buffer: row (d, k, l) and column (s, i, j) holds the input value
+     * tap (k, l) of channel d sees at output pixel (i, j) of sample s, or 0 where the tap falls in the padding.
+     */
+    private MatrixDouble im2col(Workspace workspace, Tensor[] batch, int start, int count) {
+        MatrixDouble columns = workspace.columns = MatrixDouble.ensureShape(workspace.columns, patchSize(), count * outputHeight * outputWidth);
+        double[] col = columns.getData();
+        forEachSampleChannel(count, inputDepth, (s, d) -> im2colChannel(batch[start + s].getData(), col, s, d, count));
+        return columns;
+    }
+
+    private void im2colChannel(double[] input, double[] col, int s, int d, int count) {
+        int pixels = outputHeight * outputWidth;
+        int width = count * pixels;
+
+        for (int k = 0; k < filterSize; k++) {
+            for (int l = 0; l < filterSize; l++) {
+                int rowOffset = ((d * filterSize + k) * filterSize + l) * width + s * pixels;
+                int jStart = Math.max(0, Math.ceilDiv(paddingX - l, strideX));
+                int jEnd = Math.max(jStart, Math.min(outputWidth, Math.ceilDiv(inputWidth + paddingX - l, strideX)));
+
+                for (int i = 0; i < outputHeight; i++) {
+                    int offset = rowOffset + i * outputWidth;
+                    int inputI = i * strideY - paddingY + k;
+                    if (inputI < 0 || inputI >= inputHeight) {
+                        Arrays.fill(col, offset, offset + outputWidth, 0);
+                        continue;
+                    }
+                    Arrays.fill(col, offset, offset + jStart, 0);
+                    int inputIndex = (d * inputHeight + inputI) * inputWidth + jStart * strideX - paddingX + l;
+                    if (strideX == 1) {
+                        System.arraycopy(input, inputIndex, col, offset + jStart, jEnd - jStart);
+                    } else {
+                        for (int j = jStart; j < jEnd; j++, inputIndex += strideX) {
+                            col[offset + j] = input[inputIndex];
+                        }
                     }
+                    Arrays.fill(col, offset + jEnd, offset + outputWidth, 0);
                 }
             }
         }
+    }
 
-        Arrays.fill(biases, 0);
+    /**
+     * Inverse of {@link #im2col}: scatters the patch gradients in gradientColumns back onto the input
+     * gradients of count samples, summing wherever patches overlap.
+     */
+    private void col2im(Tensor[] gradientInputs, int start, int count) {
+        forEachSampleChannel(count, inputDepth, (s, d) -> col2imChannel(gradientInputs[start + s].getData(), s, d, count));
+    }
+
+    private void col2imChannel(double[] gradientInput, int s, int d, int count) {
+        int pixels = outputHeight * outputWidth;
+        int width = count * pixels;
+        double[] col = gradientColumns.getData();
+
+        for (int k = 0; k < filterSize; k++) {
+            for (int l = 0; l < filterSize; l++) {
+                int rowOffset = ((d * filterSize + k) * filterSize + l) * width + s * pixels;
+                int jStart = Math.max(0, Math.ceilDiv(paddingX - l, strideX));
+                int jEnd = Math.min(outputWidth, Math.ceilDiv(inputWidth + paddingX - l, strideX));
+                if (jStart >= jEnd) continue;
+
+                for (int i = 0; i < outputHeight; i++) {
+                    int inputI = i * strideY - paddingY + k;
+                    if (inputI < 0 || inputI >= inputHeight) continue;
+                    int offset = rowOffset + i * outputWidth;
+                    int inputIndex = (d * inputHeight + inputI) * inputWidth + jStart * strideX - paddingX + l;
+                    if (strideX == 1) {
+                        KERNELS.axpy(1, col, offset + jStart, gradientInput, inputIndex, jEnd - jStart);
+                    } else {
+                        for (int j = jStart; j < jEnd; j++, inputIndex += strideX) {
+                            gradientInput[inputIndex] += col[offset + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Winograd F(2x2, 3x3) applies to 3x3, stride 1 layers with enough input and output channels. Returns how
+     * many samples fit in the transform buffers at once, or 0 if the layer should use the generic path.
+     */
+    private int winogradChunkSize(int batchSize) {
+        if (filterSize != 3 || strideX != 1 || strideY != 1 || Math.min(inputDepth, numFilters) < WINOGRAD_MIN_CHANNELS) {
+            return 0;
+        }
+        long perSample = (long) Winograd.POSITIONS * winogradTiles() * (inputDepth + numFilters);
+        return (int) Math.min(batchSize, IM2COL_MAX_ELEMENTS / perSample);
+    }
+
+    private int winogradTilesHigh() {
+        return Math.ceilDiv(outputHeight, Winograd.OUTPUT_TILE);
+    }
+
+    private int winogradTilesWide() {
+        return Math.ceilDiv(outputWidth, Winograd.OUTPUT_TILE);
+    }
+
+    private int winogradTiles() {
+        return winogradTilesHigh() * winogradTilesWide();
+    }
+
+    /**
+     * Recomputes the transformed filters {@code G g G^T} if the filters changed since they were last transformed.
+     */
+    private synchronized void refreshWinogradFilters() {
+        if (winogradFilters != null && !winogradFiltersStale) {
+            return;
+        }
+        winogradFilters = ensureShapes(winogradFilters, numFilters, inputDepth);
+        double[] g = new double[9], u = new double[Winograd.POSITIONS];
+        for (int f = 0; f < numFilters; f++) {
+            for (int d = 0; d < inputDepth; d++) {
+                System.arraycopy(filters, filterIndex(f, d, 0, 0), g, 0, 9);
+                Winograd.filterTransform(g, u);
+                for (int xi = 0; xi < Winograd.POSITIONS; xi++) {
+                    winogradFilters[xi].getData()[f * inputDepth + d] = u[xi];
+                }
+            }
+        }
+        winogradFiltersStale = false;
+    }
+
+    private static MatrixDouble[] ensureShapes(MatrixDouble[] buffers, int rows, int cols) {
+        if (buffers == null) {
+            buffers = new MatrixDouble[Winograd.POSITIONS];
+        }
+        for (int xi = 0; xi < buffers.length; xi++) {
+            buffers[xi] = MatrixDouble.ensureShape(buffers[xi], rows, cols);
+        }
+        return buffers;
+    }
+
+    private static double[][] dataOf(MatrixDouble[] buffers) {
+        double[][] data = new double[buffers.length][];
+        for (int xi = 0; xi < buffers.length; xi++) {
+            data[xi] = buffers[xi].getData();
+        }
+        return data;
+    }
+
+    /**
+     * Transforms every 4x4 input tile of count samples into the workspace's Winograd inputs: position xi of the tile
+     * for (sample s, channel d, tile t) lands at row d, column s * tiles + t of winogradInputs[xi].
+     */
+    private MatrixDouble[] winogradTransformInputs(Workspace workspace, Tensor[] batch, int start, int count) {
+        int tilesHigh = winogradTilesHigh(), tilesWide = winogradTilesWide(), tiles = tilesHigh * tilesWide;
+        int width = count * tiles;
+        MatrixDouble[] winogradInputs = workspace.winogradInputs = ensureShapes(workspace.winogradInputs, inputDepth, width);
+        double[][] inputData = dataOf(winogradInputs);
+
+        forEachSampleChannel(count, inputDepth, (s, d) -> {
+            double[] input = batch[start + s].getData();
+            int channel = d * inputHeight * inputWidth;
+            double[] tile = new double[Winograd.POSITIONS], v = new double[Winograd.POSITIONS];
+            for (int ti = 0; ti < tilesHigh; ti++) {
+                int top = ti * Winograd.OUTPUT_TILE - paddingY;
+                for (int tj = 0; tj < tilesWide; tj++) {
+                    int left = tj * Winograd.OUTPUT_TILE - paddingX;
+                    boolean interior = top >= 0 && top + Winograd.INPUT_TILE <= inputHeight
+                            && left >= 0 && left + Winograd.INPUT_TILE <= inputWidth;
+                    for (int r = 0; r < Winograd.INPUT_TILE; r++) {
+                        int inputI = top + r;
+                        if (interior) {
+                            System.arraycopy(input, channel + inputI * inputWidth + left, tile, r * Winograd.INPUT_TILE, Winograd.INPUT_TILE);
+                            continue;
+                        }
+                        for (int c = 0; c < Winograd.INPUT_TILE; c++) {
+                            int inputJ = left + c;
+                            boolean inside = inputI >= 0 && inputI < inputHeight && inputJ >= 0 && inputJ < inputWidth;
+                            tile[r * Winograd.INPUT_TILE + c] = inside ? input[channel + inputI * inputWidth + inputJ] : 0;
+                        }
+                    }
+                    Winograd.inputTransform(tile, v);
+                    int column = d * width + s * tiles + ti * tilesWide + tj;
+                    for (int xi = 0; xi < Winograd.POSITIONS; xi++) {
+                        inputData[xi][column] = v[xi];
+                    }
+                }
+            }
+        });
+        return winogradInputs;
+    }
+
+    /**
+     * Forward pass of count samples: 16 GEMMs {@code M[xi] = U[xi] * V[xi]} in the Winograd domain, then the
+     * output transform, bias and activation for every 2x2 output tile.
+     */
+    private void computeWinograd(Workspace workspace, Tensor[] batch, Tensor[] outputs, int start, int count) {
+        int tilesHigh = winogradTilesHigh(), tilesWide = winogradTilesWide(), tiles = tilesHigh * tilesWide;
+        int width = count * tiles;
+        MatrixDouble[] winogradInputs = winogradTransformInputs(workspace, batch, start, count);
+
+        MatrixDouble[] winogradProducts = workspace.winogradProducts = ensureShapes(workspace.winogradProducts, numFilters, width);
+        for (int xi = 0; xi < Winograd.POSITIONS; xi++) {
+            MatrixDouble.multiplyInto(winogradFilters[xi], winogradInputs[xi], winogradProducts[xi]);
+        }
+        double[][] productData = dataOf(winogradProducts);
+
+        forEachSampleChannel(count, numFilters, (s, f) -> {
+            double[] output = outputs[start + s].getData();
+            int channel = f * outputHeight * outputWidth;
+            double[] m = new double[Winograd.POSITIONS], y = new double[Winograd.OUTPUT_TILE * Winograd.OUTPUT_TILE];
+            for (int ti = 0; ti < tilesHigh; ti++) {
+                for (int tj = 0; tj < tilesWide; tj++) {
+                    int column = f * width + s * tiles + ti * tilesWide + tj;
+                    for (int xi = 0; xi < Winograd.POSITIONS; xi++) {
+                        m[xi] = productData[xi][column];
+                    }
+                    Winograd.outputTransform(m, y);
+                    // Edge tiles may hang over the output, only keep the part inside it
+                    for (int r = 0; r < Winograd.OUTPUT_TILE && ti * Winograd.OUTPUT_TILE + r < outputHeight; r++) {
+                        for (int c = 0; c < Winograd.OUTPUT_TILE && tj * Winograd.OUTPUT_TILE + c < outputWidth; c++) {
+                            int i = ti * Winograd.OUTPUT_TILE + r, j = tj * Winograd.OUTPUT_TILE + c;
+                            output[channel + i * outputWidth + j] = y[r * Winograd.OUTPUT_TILE + c] + biases[f];
+                        }
+                    }
+                }
+            }
+            activationFunction.activate(output, output, channel, outputHeight * outputWidth);
+        });
+    }
+
+    /**
+     * Backward pass of count samples through the same Winograd computation: output gradients are taken into
+     * the Winograd domain ({@code dM = A dY A^T}), then {@code dU[xi] = dM[xi] * V[xi]^T} gives the filter gradients
+     * via {@code G^T dU G}, and {@code dV[xi] = U[xi]^T * dM[xi]} gives the input gradients via {@code B dV B^T}.
+     */
+    private void backpropagateWinograd(Tensor[] inputs, Tensor[] gradientOutputs, Tensor[] gradientInputs, int start, int count) {
+        int tilesHigh = winogradTilesHigh(), tilesWide = winogradTilesWide(), tiles = tilesHigh * tilesWide;
+        int width = count * tiles;
+        MatrixDouble[] winogradInputs = winogradTransformInputs(workspace(), inputs, start, count);
+
+        winogradProductGradients = ensureShapes(winogradProductGradients, numFilters, width);
+        double[][] productGradientData = dataOf(winogradProductGradients);
+        double[] biasGradients = new double[count * numFilters];
+        forEachSampleChannel(count, numFilters, (s, f) -> {
+            double[] gradient = gradientOutputs[start + s].getData();
+            double[] deltaChannel = new double[outputHeight * outputWidth];
+            for (int i = 0; i < outputHeight; i++) {
+                activationGradientRow(gradient, (f * outputHeight + i) * outputWidth, deltaChannel, i * outputWidth);
+            }
+            double[] dy = new double[Winograd.OUTPUT_TILE * Winograd.OUTPUT_TILE], dm = new double[Winograd.POSITIONS];
+            double biasGradient = 0;
+            for (int ti = 0; ti < tilesHigh; ti++) {
+                for (int tj = 0; tj < tilesWide; tj++) {
+                    for (int r = 0; r < Winograd.OUTPUT_TILE; r++) {
+                        for (int c = 0; c < Winograd.OUTPUT_TILE; c++) {
+                            int i = ti * Winograd.OUTPUT_TILE + r, j = tj * Winograd.OUTPUT_TILE + c;
+                            double value = i < outputHeight && j < outputWidth ? deltaChannel[i * outputWidth + j] : 0;
+                            dy[r * Winograd.OUTPUT_TILE + c] = value;
+                            biasGradient += value;
+                        }
+                    }
+                    Winograd.outputTransformBackward(dy, dm);
+                    int column = f * width + s * tiles + ti * tilesWide + tj;
+                    for (int xi = 0; xi < Winograd.POSITIONS; xi++) {
+                        productGradientData[xi][column] = dm[xi];
+                    }
+                }
+            }
+            biasGradients[s * numFilters + f] = biasGradient;
+        });
+        for (int s = 0; s < count; s++) {
+            for (int f = 0; f < numFilters; f++) {
+                gradientBiases[f] += biasGradients[s * numFilters + f];
+            }
+        }
+
+        winogradFilterGradients = ensureShapes(winogradFilterGradients, numFilters, inputDepth);
+        winogradInputGradients = ensureShapes(winogradInputGradients, inputDepth, width);
+        for (int xi = 0; xi < Winograd.POSITIONS; xi++) {
+            MatrixDouble.multiplyTransBInto(winogradProductGradients[xi], winogradInputs[xi], winogradFilterGradients[xi]);
+            MatrixDouble.multiplyTransAInto(winogradFilters[xi], winogradProductGradients[xi], winogradInputGradients[xi]);
+        }
+        double[][] inputGradientData = dataOf(winogradInputGradients);
+
+        double[] du = new double[Winograd.POSITIONS], dg = new double[9];
+        for (int f = 0; f < numFilters; f++) {
+            for (int d = 0; d < inputDepth; d++) {
+                for (int xi = 0; xi < Winograd.POSITIONS; xi++) {
+                    du[xi] = winogradFilterGradients[xi].getData()[f * inputDepth + d];
+                }
+                Winograd.filterTransformBackward(du, dg);
+                KERNELS.axpy(1, dg, 0, gradientFilters, filterIndex(f, d, 0, 0), 9);
+            }
+        }
+
+        // Input tiles overlap, so each (sample, channel) pair folds its own tiles back sequentially
+        forEachSampleChannel(count, inputDepth, (s, d) -> {
+            double[] gradientInput = gradientInputs[start + s].getData();
+            int channel = d * inputHeight * inputWidth;
+            double[] dv = new double[Winograd.POSITIONS], tile = new double[Winograd.POSITIONS];
+            for (int ti = 0; ti < tilesHigh; ti++) {
+                for (int tj = 0; tj < tilesWide; tj++) {
+                    int column = d * width + s * tiles + ti * tilesWide + tj;
+                    for (int xi = 0; xi < Winograd.POSITIONS; xi++) {
+                        dv[xi] = inputGradientData[xi][column];
+                    }
+                    Winograd.inputTransformBackward(dv, tile);
+                    int top = ti * Winograd.OUTPUT_TILE - paddingY, left = tj * Winograd.OUTPUT_TILE - paddingX;
+                    for (int r = 0; r < Winograd.INPUT_TILE; r++) {
+                        int inputI = top + r;
+                        if (inputI < 0 || inputI >= inputHeight) continue;
+                        for (int c = 0; c < Winograd.INPUT_TILE; c++) {
+                            int inputJ = left + c;
+                            if (inputJ < 0 || inputJ >= inputWidth) continue;
+                            gradientInput[channel + inputI * inputWidth + inputJ] += tile[r * Winograd.INPUT_TILE + c];
+                        }
+                    }
+                }
+            }
+        });
     }
 
     @Override
-    public Object compute(Object input) {
-        if (!(input instanceof Tensor tensorInput)) {
-            throw new IllegalArgumentException("Expected input to be a Tensor, instead got: " + input.getClass().getSimpleName());
+    public void parametersUpdated() {
+        winogradFiltersStale = true;
+    }
+
+    @Override
+    public List<ParameterBlock> getParameterBlocks() {
+        if (parameterBlocks == null) {
+            parameterBlocks = List.of(
+                    new ParameterBlock(filters, gradientFilters, m, v, false),
+                    new ParameterBlock(biases, gradientBiases, mBias, vBias, false));
         }
+        return parameterBlocks;
+    }
 
-        if (tensorInput.getDepth() != inputDepth || tensorInput.getHeight() != inputHeight || tensorInput.getWidth() != inputWidth) {
-            throw new IllegalArgumentException("Input dimensions do not match expected dimensions: Expected: (" + inputDepth + ", " + inputHeight + ", " + inputWidth + "), Got: (" + tensorInput.getDepth() + ", " + tensorInput.getHeight() + ", " + tensorInput.getWidth() + ")");
+    Workspace workspace() {
+        if (workspace == null) {
+            workspace = new Workspace();
         }
+        return workspace;
+    }
 
-        double[][][] outputData = new double[numFilters][outputHeight][outputWidth];
-        POOL.invoke(new ComputeTask(tensorInput, outputData, 0, numFilters));
-        return new Tensor(outputData);
+    /**
+     * Runs body for every (sample, channel) pair of a chunk. Callers only use this where pairs touch disjoint
+     * parts of their buffers, so pairs run in parallel whenever the pool has more than one thread.
+     */
+    private void forEachSampleChannel(int count, int channels, IntBinaryConsumer body) {
+        int pairs = count * channels;
+        long work = (long) pairs * filterSize * filterSize * outputHeight * outputWidth;
+        if (POOL.getParallelism() > 1 && work > MIN_TASK_WORK) {
+            IntStream.range(0, pairs).parallel().forEach(p -> body.accept(p / channels, p % channels));
+        } else {
+            for (int p = 0; p < pairs; p++) {
+                body.accept(p / channels, p % channels);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface IntBinaryConsumer {
+        void accept(int sample, int channel);
     }
 
     public int getNumFilters() { return numFilters; }
+    public ActivationFunction getActivationFunction() {
+        return activationFunction;
+    }
     public int getOutputDepth() {
         return numFilters;
     }
@@ -185,7 +670,7 @@ public class ConvLayer extends Layer {
             for (int d = 0; d < inputDepth; d++) {
                 for (int h = 0; h < filterSize; h++) {
                     for (int w = 0; w < filterSize; w++) {
-                        System.out.print(filters[f][d][h][w] + " ");
+                        System.out.print(filters[filterIndex(f, d, h, w)] + " ");
                     }
                     System.out.println();
                 }
@@ -201,8 +686,8 @@ public class ConvLayer extends Layer {
             for (int d = 0; d < inputDepth; d++) {
                 for (int h = 0; h < filterSize; h++) {
                     for (int w = 0; w < filterSize; w++) {
-                        if (filters[f][d][h][w] < min) {
-                            min = filters[f][d][h][w];
+                        if (filters[filterIndex(f, d, h, w)] < min) {
+                            min = filters[filterIndex(f, d, h, w)];
                         }
                     }
                 }
@@ -216,8 +701,8 @@ public class ConvLayer extends Layer {
             for (int d = 0; d < inputDepth; d++) {
                 for (int h = 0; h < filterSize; h++) {
                     for (int w = 0; w < filterSize; w++) {
-                        if (filters[f][d][h][w] > max) {
-                            max = filters[f][d][h][w];
+                        if (filters[filterIndex(f, d, h, w)] > max) {
+                            max = filters[filterIndex(f, d, h, w)];
                         }
                     }
                 }
@@ -231,7 +716,7 @@ public class ConvLayer extends Layer {
             for (int d = 0; d < inputDepth; d++) {
                 for (int h = 0; h < filterSize; h++) {
                     for (int w = 0; w < filterSize; w++) {
-                        sum += filters[f][d][h][w];
+                        sum += filters[filterIndex(f, d, h, w)];
                     }
                 }
             }
@@ -243,11 +728,26 @@ public class ConvLayer extends Layer {
         return inputDepth;
     }
 
+    public int getInputHeight() {
+        return inputHeight;
+    }
+
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
     public int getFilterSize() {
         return filterSize;
     }
 
-    public double[][][][] getGradientFilters() {
+    /**
+     * Position of weight (f, d, k, l) in {@link #filters}, {@link #getGradientFilters()} and the Adam moments.
+     */
+    public int filterIndex(int f, int d, int k, int l) {
+        return ((f * inputDepth + d) * filterSize + k) * filterSize + l;
+    }
+
+    public double[] getGradientFilters() {
         return gradientFilters;
     }
 
@@ -255,49 +755,90 @@ public class ConvLayer extends Layer {
         return gradientBiases;
     }
 
+    /**
+     * Direct convolution over a block of samples x filters x output rows. The block is split along samples
+     * first, then filters, then output rows, so layers with few filters still spread over every thread.
+     */
     private class ComputeTask extends RecursiveAction {
-        private final Tensor input;
-        private final double[][][] output;
-        private final int startFilter, endFilter;
+        private final Tensor[] inputs;
+        private final Tensor[] outputs;
+        private final int startSample, endSample, startFilter, endFilter, startRow, endRow;
+        private final long grain;
 
-        ComputeTask(Tensor input, double[][][] output, int startFilter, int endFilter) {
-            this.input = input;
-            this.output = output;
+        ComputeTask(Tensor[] inputs, Tensor[] outputs, int startSample, int endSample,
+                    int startFilter, int endFilter, int startRow, int endRow, long grain) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.startSample = startSample;
+            this.endSample = endSample;
             this.startFilter = startFilter;
             this.endFilter = endFilter;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.grain = grain;
         }
 
         @Override
         protected void compute() {
-            if (endFilter - startFilter <= PARALLELISM_THRESHOLD) {
+            long rowWork = (long) outputWidth * inputDepth * filterSize * filterSize;
+            long work = (long) (endSample - startSample) * (endFilter - startFilter) * (endRow - startRow) * rowWork;
+            if (work <= grain) {
                 computeSequential();
-            } else {
+            } else if (endSample - startSample > 1) {
+                int midSample = (startSample + endSample) / 2;
+                invokeAll(
+                        new ComputeTask(inputs, outputs, startSample, midSample, startFilter, endFilter, startRow, endRow, grain),
+                        new ComputeTask(inputs, outputs, midSample, endSample, startFilter, endFilter, startRow, endRow, grain)
+                );
+            } else if (endFilter - startFilter > 1) {
                 int midFilter = (startFilter + endFilter) / 2;
                 invokeAll(
-                        new ComputeTask(input, output, startFilter, midFilter),
-                        new ComputeTask(input, output, midFilter, endFilter)
+                        new ComputeTask(inputs, outputs, startSample, endSample, startFilter, midFilter, startRow, endRow, grain),
+                        new ComputeTask(inputs, outputs, startSample, endSample, midFilter, endFilter, startRow, endRow, grain)
+                );
+            } else if (endRow - startRow > 1) {
+                int midRow = (startRow + endRow) / 2;
+                invokeAll(
+                        new ComputeTask(inputs, outputs, startSample, endSample, startFilter, endFilter, startRow, midRow, grain),
+                        new ComputeTask(inputs, outputs, startSample, endSample, startFilter, endFilter, midRow, endRow, grain)
                 );
+            } else {
+                computeSequential();
             }
         }
 
         private void computeSequential() {
-            for (int f = startFilter; f < endFilter; f++) {
-                for (int i = 0; i < outputHeight; i++) {
-                    for (int j = 0; j < outputWidth; j++) {
-                        double sum = 0;
+            for (int b = startSample; b < endSample; b++) {
+                double[] in = inputs[b].getData();
+                double[] out = outputs[b].getData();
+                for (int f = startFilter; f < endFilter; f++) {
+                    for (int i = startRow; i < endRow; i++) {
+                        // Accumulate the whole output row one filter tap at a time, so the inner loop is a contiguous axpy
+                        int outRow = outputs[b].index(f, i, 0);
+                        Arrays.fill(out, outRow, outRow + outputWidth, biases[f]);
                         for (int d = 0; d < inputDepth; d++) {
                             for (int k = 0; k < filterSize; k++) {
+                                int inputI = i * strideY - paddingY + k;
+                                if (inputI < 0 || inputI >= inputHeight) continue;
+                                int inRow = inputs[b].index(d, inputI, 0);
                                 for (int l = 0; l < filterSize; l++) {
-                                    int inputI = i * strideY - paddingY + k;
-                                    int inputJ = j * strideX - paddingX + l;
-                                    if (inputI >= 0 && inputI < inputHeight && inputJ >= 0 && inputJ < inputWidth) {
-                                        sum += input.get(d, inputI, inputJ) * filters[f][d][k][l];
+                                    // Output columns whose tap l lands inside the input row
+                                    int jStart = Math.max(0, Math.ceilDiv(paddingX - l, strideX));
+                                    int jEnd = Math.min(outputWidth, Math.ceilDiv(inputWidth + paddingX - l, strideX));
+                                    if (jStart >= jEnd) continue;
+                                    double weight = filters[filterIndex(f, d, k, l)];
+                                    int inputJ = jStart * strideX - paddingX + l;
+                                    if (strideX == 1) {
+                                        KERNELS.axpy(weight, in, inRow + inputJ, out, outRow + jStart, jEnd - jStart);
+                                    } else {
+                                        for (int j = jStart; j < jEnd; j++, inputJ += strideX) {
+                                            out[outRow + j] += weight * in[inRow + inputJ];
+                                        }
                                     }
                                 }
                             }
                         }
-                        sum += biases[f];
-                        output[f][i][j] = activationFunction.activate(sum);
+                        activationFunction.activate(out, out, outRow, outputWidth);
                     }
                 }
             }
@@ -305,102 +846,301 @@ public class ConvLayer extends Layer {
     }
 
     @Override
-    public Tensor backpropagate(Object input, Object gradientOutput) {
-        if (!(input instanceof Tensor tensorInput)) {
-            throw new IllegalArgumentException("Expected input to be a Tensor.");
+    public Object backpropagate(Object input, Object gradientOutput) {
+        Tensor[] inputs, gradientOutputs;
+        if (input instanceof Tensor tensorInput && gradientOutput instanceof Tensor tensorGradientOutput) {
+            inputs = new Tensor[]{tensorInput};
+            gradientOutputs = new Tensor[]{tensorGradientOutput};
+        } else if (input instanceof Tensor[] tensorInputs && gradientOutput instanceof Tensor[] tensorGradientOutputs) {
+            if (tensorInputs.length != tensorGradientOutputs.length) {
+                throw new IllegalArgumentException("Input and gradientOutput must have the same batch size ("+tensorInputs.length+"!="+tensorGradientOutputs.length+")");
+            }
+            inputs = tensorInputs;
+            gradientOutputs = tensorGradientOutputs;
+        } else {
+            throw new IllegalArgumentException("Expected input and gradientOutput to both be a Tensor or both be a Tensor[].");
         }
-        if (!(gradientOutput instanceof Tensor tensorGradientOutput)) {
-            throw new IllegalArgumentException("Expected gradientOutput to be a Tensor.");
+
+        Tensor[] gradientInputs = Tensor.newBatch(inputs.length, inputDepth, inputHeight, inputWidth);
+        backpropagateInto(inputs, gradientOutputs, gradientInputs);
+        return input instanceof Tensor ? gradientInputs[0] : gradientInputs;
+    }
+
+    /**
+     * Backward pass of a batch into preallocated input gradients, which are overwritten. The filter and bias
+     * gradients are overwritten with their sum over the batch.
+     */
+    void backpropagateInto(Tensor[] inputs, Tensor[] gradientOutputs, Tensor[] gradientInputs) {
+        // Reset gradients once, then accumulate every sample of the batch into them
+        Arrays.fill(gradientFilters, 0);
+        Arrays.fill(gradientBiases, 0);
+        // Every path below adds onto the input gradients
+        for (Tensor gradientInput : gradientInputs) {
+            Arrays.fill(gradientInput.getData(), 0, gradientInput.size(), 0);
         }
 
-        Tensor gradientInput = new Tensor(inputDepth, inputHeight, inputWidth);
+        int winogradChunk = winogradChunkSize(inputs.length);
+        int chunk = im2colChunkSize(inputs.length);
+        if (winogradChunk > 0) {
+            refreshWinogradFilters();
+            for (int start = 0; start < inputs.length; start += winogradChunk) {
+                backpropagateWinograd(inputs, gradientOutputs, gradientInputs, start, Math.min(winogradChunk, inputs.length - start));
+            }
+        } else if (chunk == 0) {
+            // Too large for im2col: filter gradients split over filters and channels, input gradients over samples, channels and rows
+            double[][][][] deltas = new double[inputs.length][][][];
+            for (int b = 0; b < inputs.length; b++) {
+                deltas[b] = activationGradient(gradientOutputs[b]);
+            }
+            long work = (long) inputs.length * numFilters * outputHeight * outputWidth * patchSize();
+            runTask(new FilterGradientTask(inputs, deltas, 0, numFilters, 0, inputDepth, taskGrain(work)));
+            runTask(new InputGradientTask(deltas, gradientInputs, 0, inputs.length, 0, inputDepth, 0, inputHeight, taskGrain(work)));
+        } else {
+            packFilters();
+            for (int start = 0; start < inputs.length; start += chunk) {
+                backpropagateIm2col(inputs, gradientOutputs, gradientInputs, start, Math.min(chunk, inputs.length - start));
+            }
+        }
+    }
+
+    /**
+     * Backward pass of count samples as two GEMMs over the im2col columns:
+     * filter gradients {@code delta * columns^T} and patch gradients {@code filters^T * delta}, which col2im folds back onto the inputs.
+     */
+    private void backpropagateIm2col(Tensor[] inputs, Tensor[] gradientOutputs, Tensor[] gradientInputs, int start, int count) {
+        int pixels = outputHeight * outputWidth;
+        int patch = patchSize();
+        MatrixDouble columns = im2col(workspace(), inputs, start, count);
 
-        // Reset gradients
+        // delta: [numFilters x (count * pixels)], the output gradients through the activation
+        delta = MatrixDouble.ensureShape(delta, numFilters, count * pixels);
+        double[] dl = delta.getData();
         for (int f = 0; f < numFilters; f++) {
-            for (int d = 0; d < inputDepth; d++) {
-                for (int i = 0; i < filterSize; i++) {
-                    Arrays.fill(gradientFilters[f][d][i], 0);
+            for (int s = 0; s < count; s++) {
+                double[] gradient = gradientOutputs[start + s].getData();
+                int offset = f * count * pixels + s * pixels;
+                for (int i = 0; i < outputHeight; i++) {
+                    activationGradientRow(gradient, (f * outputHeight + i) * outputWidth, dl, offset + i * outputWidth);
                 }
             }
         }
-        Arrays.fill(gradientBiases, 0);
 
-        POOL.invoke(new BackpropagationTask(tensorInput, tensorGradientOutput, gradientInput, 0, numFilters));
+        gradientFilterMatrix = MatrixDouble.ensureShape(gradientFilterMatrix, numFilters, patch);
+        MatrixDouble.multiplyTransBInto(delta, columns, gradientFilterMatrix);
+        gradientBiasMatrix = MatrixDouble.ensureShape(gradientBiasMatrix, numFilters, 1);
+        MatrixDouble.rowSumsInto(delta, gradientBiasMatrix);
+
+        // The gradient matrix has the flat filter layout
+        KERNELS.axpy(1, gradientFilterMatrix.getData(), 0, gradientFilters, 0, numFilters * patch);
+        KERNELS.axpy(1, gradientBiasMatrix.getData(), 0, gradientBiases, 0, numFilters);
+
+        gradientColumns = MatrixDouble.ensureShape(gradientColumns, patch, count * pixels);
+        MatrixDouble.multiplyTransAInto(filterMatrix, delta, gradientColumns);
+        col2im(gradientInputs, start, count);
+    }
+
+    /**
+     * Output gradients passed back through the activation, per sample: [numFilters][outputHeight][outputWidth].
+     */
+    private double[][][] activationGradient(Tensor gradientOutput) {
+        double[][][] delta = new double[numFilters][outputHeight][outputWidth];
+        double[] grad = gradientOutput.getData();
+        for (int f = 0; f < numFilters; f++) {
+            for (int i = 0; i < outputHeight; i++) {
+                activationGradientRow(grad, gradientOutput.index(f, i, 0), delta[f][i], 0);
+            }
+        }
+        return delta;
+    }
 
-        return gradientInput;
+    /**
+     * Writes the output row of gradient starting at gradientOffset through the activation, {@code g * phi'(g)},
+     * to delta starting at offset.
+     */
+    private void activationGradientRow(double[] gradient, int gradientOffset, double[] delta, int offset) {
+        System.arraycopy(gradient, gradientOffset, delta, offset, outputWidth);
+        if (activationFunction.isIdentity()) {
+            return;
+        }
+        activationFunction.derivative(delta, delta, offset, outputWidth);
+        for (int j = 0; j < outputWidth; j++) {
+            delta[offset + j] *= gradient[gradientOffset + j];
+        }
     }
 
-    private class BackpropagationTask extends RecursiveAction {
-        private final Tensor input, gradientOutput, gradientInput;
-        private final int startFilter, endFilter;
-        private final double[][][][] localGradientFilters;
-        private final double[] localGradientBiases;
+    /**
+     * Accumulates filter and bias gradients over the whole batch for a block of filters x input channels.
+     * Each task only writes the gradients of its own (filter, channel) slices, so tasks never contend;
+     * splitting over channels as well as filters keeps every thread busy when there are few filters.
+     */
+    private class FilterGradientTask extends RecursiveAction {
+        private final Tensor[] inputs;
+        private final double[][][][] deltas;
+        private final int startFilter, endFilter, startChannel, endChannel;
+        private final long grain;
 
-        BackpropagationTask(Tensor input, Tensor gradientOutput, Tensor gradientInput, int startFilter, int endFilter) {
-            this.input = input;
-            this.gradientOutput = gradientOutput;
-            this.gradientInput = gradientInput;
+        FilterGradientTask(Tensor[] inputs, double[][][][] deltas, int startFilter, int endFilter,
+                           int startChannel, int endChannel, long grain) {
+            this.inputs = inputs;
+            this.deltas = deltas;
             this.startFilter = startFilter;
             this.endFilter = endFilter;
-            this.localGradientFilters = new double[endFilter - startFilter][inputDepth][filterSize][filterSize];
-            this.localGradientBiases = new double[endFilter - startFilter];
+            this.startChannel = startChannel;
+            this.endChannel = endChannel;
+            this.grain = grain;
         }
 
         @Override
         protected void compute() {
-            if (endFilter - startFilter <= PARALLELISM_THRESHOLD) {
-                backpropagateSequential();
-            } else {
+            long work = (long) (endFilter - startFilter) * (endChannel - startChannel)
+                    * inputs.length * outputHeight * outputWidth * filterSize * filterSize;
+            if (work <= grain) {
+                computeSequential();
+            } else if (endFilter - startFilter > 1) {
                 int midFilter = (startFilter + endFilter) / 2;
                 invokeAll(
-                        new BackpropagationTask(input, gradientOutput, gradientInput, startFilter, midFilter),
-                        new BackpropagationTask(input, gradientOutput, gradientInput, midFilter, endFilter) // Corrected range
+                        new FilterGradientTask(inputs, deltas, startFilter, midFilter, startChannel, endChannel, grain),
+                        new FilterGradientTask(inputs, deltas, midFilter, endFilter, startChannel, endChannel, grain)
                 );
+            } else if (endChannel - startChannel > 1) {
+                int midChannel = (startChannel + endChannel) / 2;
+                invokeAll(
+                        new FilterGradientTask(inputs, deltas, startFilter, endFilter, startChannel, midChannel, grain),
+                        new FilterGradientTask(inputs, deltas, startFilter, endFilter, midChannel, endChannel, grain)
+                );
+            } else {
+                computeSequential();
             }
         }
 
-        private void backpropagateSequential() {
-            for (int f = startFilter; f < endFilter; f++) {
-                for (int i = 0; i < outputHeight; i++) {
-                    for (int j = 0; j < outputWidth; j++) {
-                        double gradientValue = gradientOutput.get(f, i, j) * activationFunction.derivative(gradientOutput.get(f, i, j));
-
-                        localGradientBiases[f - startFilter] += gradientValue;
-
-                        for (int d = 0; d < inputDepth; d++) {
+        private void computeSequential() {
+            for (int b = 0; b < inputs.length; b++) {
+                double[] in = inputs[b].getData();
+                double[][][] delta = deltas[b];
+                for (int f = startFilter; f < endFilter; f++) {
+                    for (int i = 0; i < outputHeight; i++) {
+                        double[] deltaRow = delta[f][i];
+                        if (startChannel == 0) {
+                            // The bias gradient belongs to the task holding a filter's first channel
+                            for (int j = 0; j < outputWidth; j++) {
+                                gradientBiases[f] += deltaRow[j];
+                            }
+                        }
+                        for (int d = startChannel; d < endChannel; d++) {
                             for (int k = 0; k < filterSize; k++) {
+                                int inputI = i * strideY - paddingY + k;
+                                if (inputI < 0 || inputI >= inputHeight) continue;
+                                int inRow = inputs[b].index(d, inputI, 0);
+                                int gradientRow = filterIndex(f, d, k, 0);
                                 for (int l = 0; l < filterSize; l++) {
-                                    int inputI = i * strideY - paddingY + k;
-                                    int inputJ = j * strideX - paddingX + l;
-                                    if (inputI >= 0 && inputI < inputHeight && inputJ >= 0 && inputJ < inputWidth) {
-                                        double inputValue = input.get(d, inputI, inputJ);
-                                        localGradientFilters[f - startFilter][d][k][l] += gradientValue * inputValue;
-                                        synchronized (gradientInput) {
-                                            gradientInput.set(d, inputI, inputJ, gradientInput.get(d, inputI, inputJ) + gradientValue * filters[f][d][k][l]);
+                                    int jStart = Math.max(0, Math.ceilDiv(paddingX - l, strideX));
+                                    int jEnd = Math.min(outputWidth, Math.ceilDiv(inputWidth + paddingX - l, strideX));
+                                    if (jStart >= jEnd) continue;
+                                    int inputJ = jStart * strideX - paddingX + l;
+                                    if (strideX == 1) {
+                                        gradientFilters[gradientRow + l] += KERNELS.dot(deltaRow, jStart, in, inRow + inputJ, jEnd - jStart);
+                                    } else {
+                                        double sum = 0;
+                                        for (int j = jStart; j < jEnd; j++, inputJ += strideX) {
+                                            sum += deltaRow[j] * in[inRow + inputJ];
                                         }
+                                        gradientFilters[gradientRow + l] += sum;
                                     }
                                 }
                             }
                         }
                     }
                 }
-
             }
-            synchronized (ConvLayer.this) {
-                addLocalGradients(localGradientFilters, localGradientBiases, startFilter);
+        }
+    }
+
+    /**
+     * Computes input gradients as a transposed convolution of the output gradients, over a block of
+     * samples x input channels x input rows. Each task owns its rows of the input gradient, so no locking is needed.
+     */
+    private class InputGradientTask extends RecursiveAction {
+        private final double[][][][] deltas;
+        private final Tensor[] gradientInputs;
+        private final int startSample, endSample, startChannel, endChannel, startRow, endRow;
+        private final long grain;
+
+        InputGradientTask(double[][][][] deltas, Tensor[] gradientInputs, int startSample, int endSample,
+                          int startChannel, int endChannel, int startRow, int endRow, long grain) {
+            this.deltas = deltas;
+            this.gradientInputs = gradientInputs;
+            this.startSample = startSample;
+            this.endSample = endSample;
+            this.startChannel = startChannel;
+            this.endChannel = endChannel;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            // Each input row receives about filterSize / strideY output rows per filter
+            long rowWork = (long) numFilters * filterSize * filterSize * outputWidth / strideY;
+            long work = (long) (endSample - startSample) * (endChannel - startChannel) * (endRow - startRow) * rowWork;
+            if (work <= grain) {
+                computeSequential();
+            } else if (endSample - startSample > 1) {
+                int midSample = (startSample + endSample) / 2;
+                invokeAll(
+                        new InputGradientTask(deltas, gradientInputs, startSample, midSample, startChannel, endChannel, startRow, endRow, grain),
+                        new InputGradientTask(deltas, gradientInputs, midSample, endSample, startChannel, endChannel, startRow, endRow, grain)
+                );
+            } else if (endChannel - startChannel > 1) {
+                int midChannel = (startChannel + endChannel) / 2;
+                invokeAll(
+                        new InputGradientTask(deltas, gradientInputs, startSample, endSample, startChannel, midChannel, startRow, endRow, grain),
+                        new InputGradientTask(deltas, gradientInputs, startSample, endSample, midChannel, endChannel, startRow, endRow, grain)
+                );
+            } else if (endRow - startRow > 1) {
+                int midRow = (startRow + endRow) / 2;
+                invokeAll(
+                        new InputGradientTask(deltas, gradientInputs, startSample, endSample, startChannel, endChannel, startRow, midRow, grain),
+                        new InputGradientTask(deltas, gradientInputs, startSample, endSample, startChannel, endChannel, midRow, endRow, grain)
+                );
+            } else {
+                computeSequential();
             }
         }
 
-        private void addLocalGradients(double[][][][] localFilters, double[] localBiases, int offset) {
-            for (int f = 0; f < localFilters.length; f++) {
-                for (int d = 0; d < inputDepth; d++) {
-                    for (int i = 0; i < filterSize; i++) {
-                        for (int j = 0; j < filterSize; j++) {
-                            gradientFilters[f + offset][d][i][j] += localFilters[f][d][i][j];
+        private void computeSequential() {
+            for (int b = startSample; b < endSample; b++) {
+                double[] gradIn = gradientInputs[b].getData();
+                double[][][] delta = deltas[b];
+                for (int d = startChannel; d < endChannel; d++) {
+                    for (int inputI = startRow; inputI < endRow; inputI++) {
+                        int gradRow = gradientInputs[b].index(d, inputI, 0);
+                        for (int k = 0; k < filterSize; k++) {
+                            // Output row i reaches this input row through tap k when i * strideY - paddingY + k == inputI
+                            int offset = inputI + paddingY - k;
+                            if (offset < 0 || offset % strideY != 0) continue;
+                            int i = offset / strideY;
+                            if (i >= outputHeight) continue;
+                            for (int f = 0; f < numFilters; f++) {
+                                double[] deltaRow = delta[f][i];
+                                for (int l = 0; l < filterSize; l++) {
+                                    int jStart = Math.max(0, Math.ceilDiv(paddingX - l, strideX));
+                                    int jEnd = Math.min(outputWidth, Math.ceilDiv(inputWidth + paddingX - l, strideX));
+                                    if (jStart >= jEnd) continue;
+                                    double weight = filters[filterIndex(f, d, k, l)];
+                                    int inputJ = jStart * strideX - paddingX + l;
+                                    if (strideX == 1) {
+                                        KERNELS.axpy(weight, deltaRow, jStart, gradIn, gradRow + inputJ, jEnd - jStart);
+                                    } else {
+                                        for (int j = jStart; j < jEnd; j++, inputJ += strideX) {
+                                            gradIn[gradRow + inputJ] += weight * deltaRow[j];
+                                        }
+                                    }
+                                }
+                            }
                         }
                     }
                 }
-                gradientBiases[f + offset] += localBiases[f];
             }
         }
     }
@@ -412,26 +1152,22 @@ public class ConvLayer extends Layer {
         double beta2 = 0.999;
         double epsilon = 1e-8;
 
+        for (int w = 0; w < filters.length; w++) {
+            // Update biased first moment estimate
+            m[w] = beta1 * m[w] + (1 - beta1) * gradientFilters[w];
+            // Update biased second raw moment estimate
+            v[w] = beta2 * v[w] + (1 - beta2) * gradientFilters[w] * gradientFilters[w];
+            // Compute bias-corrected first moment estimate
+            double mHat = m[w] / (1 - Math.pow(beta1, timestep));
+            // Compute bias-corrected second raw moment estimate
+            double vHat = v[w] / (1 - Math.pow(beta2, timestep));
+            // Update parameters
+            double update = learningRate * mHat / (Math.sqrt(vHat) + epsilon);
+            // Clip the update
+            update = math.clamp(update, -clipValue, clipValue);
+            filters[w] -= update;
+        }
         for (int f = 0; f < numFilters; f++) {
-            for (int d = 0; d < inputDepth; d++) {
-                for (int i = 0; i < filterSize; i++) {
-                    for (int j = 0; j < filterSize; j++) {
-                        // Update biased first moment estimate
-                        m[f][d][i][j] = beta1 * m[f][d][i][j] + (1 - beta1) * gradientFilters[f][d][i][j];
-                        // Update biased second raw moment estimate
-                        v[f][d][i][j] = beta2 * v[f][d][i][j] + (1 - beta2) * gradientFilters[f][d][i][j] * gradientFilters[f][d][i][j];
-                        // Compute bias-corrected first moment estimate
-                        double mHat = m[f][d][i][j] / (1 - Math.pow(beta1, timestep));
-                        // Compute bias-corrected second raw moment estimate
-                        double vHat = v[f][d][i][j] / (1 - Math.pow(beta2, timestep));
-                        // Update parameters
-                        double update = learningRate * mHat / (Math.sqrt(vHat) + epsilon);
-                        // Clip the update
-                        update = math.clamp(update, -clipValue, clipValue);
-                        filters[f][d][i][j] -= update;
-                    }
-                }
-            }
             // Update biases with Adam
             mBias[f] = beta1 * mBias[f] + (1 - beta1) * gradientBiases[f];
             vBias[f] = beta2 * vBias[f] + (1 - beta2) * gradientBiases[f] * gradientBiases[f];
@@ -443,14 +1179,9 @@ public class ConvLayer extends Layer {
         }
 
         // Reset gradients after update
-        for (int f = 0; f < numFilters; f++) {
-            Arrays.fill(gradientBiases, 0);
-            for (int d = 0; d < inputDepth; d++) {
-                for (int i = 0; i < filterSize; i++) {
-                    Arrays.fill(gradientFilters[f][d][i], 0);
-                }
-            }
-        }
+        Arrays.fill(gradientBiases, 0);
+        Arrays.fill(gradientFilters, 0);
+        parametersUpdated();
     }
 
     @Override
@@ -2,9 +2,14 @@ package Structures;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import Tools.math;
 import Training.Optimizers.Adam;
 import Training.Optimizers.Optimizer;
+import Training.Replay.ExperienceReplay;
 
 public class DDQNAgent {
     private Optimizer optimizer;
@@ -30,6 +35,21 @@ public class DDQNAgent {
     private final int burstDuration = 1000;   // Duration in steps
     private int burstStepCounter = 0;         // Counter
 
+    // Minibatch training reuses compiled plans and buffers while the batch size stays the same
+    private ExecutionPlan trainPlan, nextOnlinePlan, nextTargetPlan;
+    private final List<Object> stateBatch = new ArrayList<>(), nextStateBatch = new ArrayList<>();
+    private MatrixDouble targetQValues;
+    // Acting runs a forward-only plan of the online network, one state at a time
+    private ExecutionPlan actionPlan;
+    private final List<Object> actionState = new ArrayList<>(1);
+    // Asynchronous target updates blend the next target into a spare network on a background thread; the two swap
+    // roles, together with their plans, once the blend has completed
+    private ExecutorService targetUpdater;
+    private Future<?> pendingTargetUpdate;
+    private int deferredTargetUpdates; // updates that fell due while a blend was running, applied with the next one
+    private DQN spareTargetDQN;
+    private ExecutionPlan spareTargetPlan;
+
     //Q-value clipping range
     private static final double Q_CLIP_MIN = -50.0;
     private static final double Q_CLIP_MAX = 50.0;
@@ -74,68 +94,231 @@ public class DDQNAgent {
         if (Math.random() < epsilon) {
             return (int) (Math.random() * actionSpace);  // Exploration
         } else {
-            MatrixDouble qValues = (MatrixDouble) onlineDQN.getOutput(state);
+            MatrixDouble qValues = getQValues(state);
             return (int) math.maxIndex(qValues).y;  // Exploitation: max Q-value
         }
     }
 
-    private void softUpdate() {
-        // Soft update of the target DQN
-        for (int i = 0; i < onlineDQN.numLayers(); i++) {
-            Layer onlineLayer = onlineDQN.getLayer(i);
-            Layer targetLayer = targetDQN.getLayer(i);
-
-            onlineLayer.copyTo(targetLayer, false);  // Copy weights with tau
+    /**
+     * The online network's [actionSpace x 1] Q-values for a single state, computed as inference: batch
+     * normalization uses (and leaves untouched) its running statistics, and no intermediates are kept.
+     * The result is overwritten by the next call.
+     */
+    public MatrixDouble getQValues(Object state) {
+        if (actionPlan == null || !actionPlan.isCurrent()) {
+            actionPlan = onlineDQN.compileInference(1);
+        }
+        actionState.clear();
+        actionState.add(state);
+        return actionPlan.forward(actionState);
+    }
 
-            if (onlineLayer instanceof MLPLayer) {
-                MLPLayer onlineMLP = (MLPLayer) onlineLayer;
-                MLPLayer targetMLP = (MLPLayer) targetLayer;
+    /**
+     * Applies the given number of Polyak updates against the current online parameters. Updates that fall due
+     * without an optimizer step in between blend the same online values, so k of them collapse into one sweep
+     * with {@code tau_k = 1 - (1 - tau)^k}.
+     */
+    private void softUpdate(int updates) {
+        if (targetUpdater == null) {
+            // target = tau_k * online + (1 - tau_k) * target, over every layer's parameters
+            DQN.softUpdate(onlineDQN, targetDQN, effectiveTau(updates));
+            targetDQN.setLearningRate(onlineDQN.getLearningRate());
+            return;
+        }
+        finishTargetUpdate(false);
+        if (pendingTargetUpdate != null) {
+            deferredTargetUpdates += updates;
+            return;
+        }
+        // spare = tau_k * online + (1 - tau_k) * target; the learner only reads the current target meanwhile
+        double effectiveTau = effectiveTau(updates + deferredTargetUpdates);
+        deferredTargetUpdates = 0;
+        DQN online = onlineDQN, current = targetDQN, next = spareTargetDQN;
+        pendingTargetUpdate = targetUpdater.submit(() -> DQN.softUpdate(online, current, next, effectiveTau));
+    }
 
-                for (int r = 0; r < onlineMLP.weights.rows; r++) {
-                    for (int c = 0; c < onlineMLP.weights.cols; c++) {
-                        double onlineWeight = onlineMLP.weights.get(c, r);
-                        double targetWeight = targetMLP.weights.get(c, r);
-                        targetMLP.weights.set(c, r, tau * onlineWeight + (1 - tau) * targetWeight);
-                    }
-                }
+    private double effectiveTau(int updates) {
+        return 1 - Math.pow(1 - tau, updates);
+    }
 
-                for (int r = 0; r < onlineMLP.biases.rows; r++) {
-                    double onlineBias = onlineMLP.biases.get(0, r);
-                    double targetBias = targetMLP.biases.get(0, r);
-                    targetMLP.biases.set(0, r, tau * onlineBias + (1 - tau) * targetBias);
-                }
+    /**
+     * Takes target network updates off the training step. Each update is blended into a spare copy of the target
+     * on a background thread, and the learner switches to it at the first update step after it completes, so it
+     * never sees a partially updated target. Updates that fall due while the previous blend is still running are
+     * carried into the next one, so the target follows the same Polyak schedule as with synchronous updates, only
+     * lagging by up to one blend. The online parameters are read while training continues, so one blend may mix
+     * parameters from adjacent optimizer steps. Disabling waits for the blend in flight, keeps its result and applies
+     * any carried updates in place.
+     */
+    public void setAsyncTargetUpdates(boolean async) {
+        if (async == (targetUpdater != null)) {
+            return;
+        }
+        if (async) {
+            spareTargetDQN = new DQN(stateSpace, copyLayers(targetDQN.getLayers()), targetDQN.getLearningRate());
+            spareTargetDQN.setOptimizer(optimizer);
+            targetUpdater = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "target-network-update");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            finishTargetUpdate(true);
+            targetUpdater.shutdown();
+            targetUpdater = null;
+            spareTargetDQN = null;
+            spareTargetPlan = null;
+            if (deferredTargetUpdates > 0) {
+                softUpdate(deferredTargetUpdates);
+                deferredTargetUpdates = 0;
             }
         }
+    }
+
+    public boolean isAsyncTargetUpdates() {
+        return targetUpdater != null;
+    }
+
+    /**
+     * Swaps in the target blended by the background thread once it is complete, waiting for it if wait is set.
+     */
+    private void finishTargetUpdate(boolean wait) {
+        if (pendingTargetUpdate == null || (!wait && !pendingTargetUpdate.isDone())) {
+            return;
+        }
+        try {
+            pendingTargetUpdate.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the target network update.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Target network update failed.", e.getCause());
+        } finally {
+            pendingTargetUpdate = null;
+        }
+
+        DQN next = spareTargetDQN;
+        spareTargetDQN = targetDQN;
+        targetDQN = next;
+        ExecutionPlan nextPlan = spareTargetPlan;
+        spareTargetPlan = nextTargetPlan;
+        nextTargetPlan = nextPlan;
         targetDQN.setLearningRate(onlineDQN.getLearningRate());
     }
 
     public double train(Object state, int action, double reward, Object nextState, boolean done) {
-        stepCounter++;
-
         List<Object> layerOutputs = onlineDQN.forwardPass(state);
         MatrixDouble currentQValues = (MatrixDouble) layerOutputs.getLast();
-        MatrixDouble target = currentQValues.copy();
+        double currentQ = currentQValues.get(0, action);
+        double targetValue;
 
         if (!done) {
             MatrixDouble nextQValuesOnline = (MatrixDouble) onlineDQN.getOutput(nextState);
             int bestAction = (int) math.maxIndex(nextQValuesOnline).y;
             MatrixDouble nextQValuesTarget = (MatrixDouble) targetDQN.getOutput(nextState);
             double targetQ = nextQValuesTarget.get(0, bestAction);
-            double targetValue = reward + gamma * targetQ;
-            target.set(0, action, targetValue);
+            targetValue = reward + gamma * targetQ;
         } else {
-            target.set(0, action, reward);
+            targetValue = reward;
+        }
+
+        advanceSteps(1);
+        return targetValue - currentQ;
+    }
+
+    /**
+     * Trains the online network on a whole minibatch with one forward pass per network and a single
+     * optimizer step.
+     * <p>
+     * Current states and next states are each stacked into one batch, so the online network runs
+     * twice and the target network once regardless of the batch size. Double-DQN targets are
+     * {@code reward + gamma * Q_target(s', argmax_a Q_online(s', a))}, or just the reward for terminal
+     * transitions. Only the Q-value of the action that was taken is moved towards its target.
+     * </p>
+     *
+     * @return the TD error (target - current Q) of each experience, in batch order
+     */
+    public List<Double> trainBatch(List<ExperienceReplay.Experience> batch) {
+        int batchSize = batch.size();
+        stateBatch.clear();
+        nextStateBatch.clear();
+        for (ExperienceReplay.Experience experience : batch) {
+            stateBatch.add(experience.state);
+            nextStateBatch.add(experience.nextState);
+        }
+
+        // Next-state Q-values need no gradients, so they run as inference: batch normalization uses its running
+        // statistics without updating them, and the training activations in trainPlan survive until backward
+        trainPlan = planFor(trainPlan, onlineDQN, batchSize, false);
+        nextOnlinePlan = planFor(nextOnlinePlan, onlineDQN, batchSize, true);
+        nextTargetPlan = planFor(nextTargetPlan, targetDQN, batchSize, true);
+
+        MatrixDouble nextQValuesOnline = nextOnlinePlan.forward(nextStateBatch);
+        MatrixDouble nextQValuesTarget = nextTargetPlan.forward(nextStateBatch);
+        MatrixDouble currentQValues = trainPlan.forward(stateBatch);
+
+        // [actionSpace x batch]: column b holds the Q-values of sample b
+        double[] online = nextQValuesOnline.getData();
+        double[] target = nextQValuesTarget.getData();
+        targetQValues = MatrixDouble.ensureShape(targetQValues, currentQValues.getRows(), batchSize);
+        MatrixDouble.copy(currentQValues, targetQValues);
+        double[] targetQ = targetQValues.getData();
+
+        List<Double> tdErrors = new ArrayList<>(batchSize);
+        for (int b = 0; b < batchSize; b++) {
+            ExperienceReplay.Experience experience = batch.get(b);
+            double targetValue = experience.reward;
+
+            if (!experience.done) {
+                int bestAction = 0;
+                for (int a = 1; a < actionSpace; a++) {
+                    if (online[a * batchSize + b] > online[bestAction * batchSize + b]) {
+                        bestAction = a;
+                    }
+                }
+                targetValue += gamma * target[bestAction * batchSize + b];
+            }
+
+            int index = experience.action * batchSize + b;
+            tdErrors.add(targetValue - targetQ[index]);
+            targetQ[index] = targetValue;
+        }
+
+        trainPlan.backward(targetQValues);
+
+        // Keep the exploration, learning rate and target update schedules counted in experiences
+        advanceSteps(batchSize);
+        return tdErrors;
+    }
+
+    private static ExecutionPlan planFor(ExecutionPlan plan, DQN network, int batchSize, boolean inference) {
+        if (plan != null && plan.getBatchSize() == batchSize && plan.isInference() == inference && plan.isCurrent()) {
+            return plan;
         }
+        return inference ? network.compileInference(batchSize) : network.compile(batchSize);
+    }
+
+    /**
+     * Advances the schedules by the given number of experiences, all trained by the same optimizer step.
+     */
+    private void advanceSteps(int steps) {
+        int targetUpdates = 0;
+        for (int s = 0; s < steps; s++) {
+            stepCounter++;
 
-        // Update epsilon after training step
-        decayEpsilon();
-        decayLearningRate();
+            // Update epsilon after training step
+            decayEpsilon();
+            decayLearningRate();
+
+            if (stepCounter % targetUpdateFrequency == 0) {
+                targetUpdates++;
+            }
+        }
 
         // Soft update for target network
-        if (stepCounter % targetUpdateFrequency == 0) {
-            softUpdate();
+        if (targetUpdates > 0) {
+            softUpdate(targetUpdates);
         }
-        return target.get(0, action) - currentQValues.get(0, action);
     }
 
     private void decayEpsilon() {
@@ -160,6 +343,18 @@ public class DDQNAgent {
         return epsilon;
     }
     public double getLearningRate() { return onlineDQN.getLearningRate(); }
+    /**
+     * Sets the forward-pass precision of both the online and target networks.
+     */
+    public void setPrecision(Precision precision) {
+        finishTargetUpdate(true);
+        onlineDQN.setPrecision(precision);
+        targetDQN.setPrecision(precision);
+        if (spareTargetDQN != null) {
+            spareTargetDQN.setPrecision(precision);
+        }
+    }
+
     public void setVerbose(boolean verbose) {
         isVerbose = verbose;
     }
@@ -169,6 +364,7 @@ public class DDQNAgent {
     }
 
     public void loadAgent(String filename) {
+        finishTargetUpdate(true);
         onlineDQN.loadNN(filename);
     }
 
@@ -7,6 +7,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 public class DQN extends NN {
@@ -22,8 +23,12 @@ public class DQN extends NN {
 
     @Override
     public Object getOutput(Object input) {
-        List<Object> layerOutputs = forwardPass(input);
-        return layerOutputs.getLast();
+        // Only the last output is needed, so earlier ones are not kept
+        Object output = input;
+        for (Layer layer : layers) {
+            output = layer.compute(output);
+        }
+        return output;
     }
 
     public void addLayer(Layer layer) {
@@ -56,19 +61,98 @@ public class DQN extends NN {
         }
     }
 
+    /**
+     * Backpropagates the mean squared error between the output and target over a whole batch,
+     * then takes a single optimizer step.
+     *
+     * @param target       [outputSize x batch] target Q-values, one column per sample
+     * @param layerOutputs the result of {@link #forwardPass(Object)} for the same batch
+     */
     @Override
     public void backpropagate(Object input, MatrixDouble target, List<Object> layerOutputs) {
         MatrixDouble output = (MatrixDouble) layerOutputs.getLast();
-        Object gradientOutput = MatrixDouble.subtract(target, output);
 
+        // d/dOutput of the mean over the batch of 0.5 * (output - target)^2
+        MatrixDouble gradient = MatrixDouble.subtract(output, target);
+        gradient.divide(output.getCols());
+        Object gradientOutput = gradient;
+
+        // Every layer overwrites its parameter gradients with their sum over the batch
         for (int i = layers.size() - 1; i >= 0; i--) {
-            Layer currentLayer = layers.get(i);
-            Object layerInput = layerOutputs.get(i);
+            gradientOutput = layers.get(i).backpropagate(layerOutputs.get(i), gradientOutput);
+        }
+
+        optimizerStep();
+    }
+
+    /**
+     * Applies one optimizer step to every layer from the parameter gradients left by the last backward pass,
+     * after clipping them by their norm over the whole network.
+     */
+    void optimizerStep() {
+        optimizer.incrementT();
+        optimizer.clipGradients(layers);
+        for (Layer layer : layers) {
+            optimizer.optimize(layer);
+        }
+    }
 
-            gradientOutput = currentLayer.backpropagate(layerInput, gradientOutput);
+    /**
+     * Compiles this network for a fixed batch size: the returned plan preallocates every activation and gradient
+     * buffer once and reuses them on every pass (see {@link ExecutionPlan}).
+     */
+    public ExecutionPlan compile(int batchSize) {
+        return new ExecutionPlan(this, batchSize, false);
+    }
+
+    /**
+     * Compiles a forward-only plan for a fixed batch size, which ping-pongs between two scratch buffers and leaves
+     * BatchNorm running statistics untouched. A thread that owns its plan can run it alongside other threads.
+     */
+    public ExecutionPlan compileInference(int batchSize) {
+        return new ExecutionPlan(this, batchSize, true);
+    }
+
+    /**
+     * Stacks individual states into the batch layout the layers expect: column vectors become one
+     * [features x batch] MatrixDouble, Tensors become a Tensor[].
+     */
+    public static Object stackBatch(List<?> states) {
+        if (states.isEmpty()) {
+            throw new IllegalArgumentException("Cannot stack an empty batch.");
+        }
+        if (states.getFirst() instanceof MatrixDouble) {
+            List<MatrixDouble> columns = new ArrayList<>(states.size());
+            for (Object state : states) {
+                columns.add((MatrixDouble) state);
+            }
+            return MatrixDouble.concatenateColumns(columns);
+        }
+        if (states.getFirst() instanceof Tensor) {
+            return states.toArray(new Tensor[0]);
+        }
+        throw new IllegalArgumentException("Expected states to be MatrixDouble or Tensor, got: " + states.getFirst().getClass().getSimpleName());
+    }
 
-            optimizer.optimize(currentLayer);
+    /**
+     * Builds an inference copy of this network. Every layer is copied and put in inference mode, and every
+     * BatchNormLayer directly after a ConvLayer with a linear activation is folded into that layer's filters and
+     * biases, so the pair costs a single convolution. Other batch normalization layers stay, using their running statistics.
+     */
+    public DQN foldBatchNorm() {
+        List<Layer> folded = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer instanceof BatchNormLayer batchNorm && !folded.isEmpty() && batchNorm.canFoldInto(folded.getLast())) {
+                batchNorm.foldInto((ConvLayer) folded.getLast());
+                continue;
+            }
+            folded.add(layer.copy());
         }
+
+        DQN inference = new DQN(inputSize, folded, learningRate);
+        inference.optimizer = optimizer;
+        inference.setTraining(false);
+        return inference;
     }
 
     public int numLayers() {
@@ -85,7 +169,39 @@ public class DQN extends NN {
         }
     }
 
+    /**
+     * Polyak update of the target network: {@code target = tau * source + (1 - tau) * target} over every parameter
+     * block of every layer, one fused sweep per block. Non-trainable blocks such as BatchNorm running statistics are
+     * blended alike, so the target normalizes with statistics that track the online network's. Gradients and
+     * optimizer moments of the target are left alone.
+     */
+    public static void softUpdate(DQN sourceNetwork, DQN targetNetwork, double tau) {
+        softUpdate(sourceNetwork, targetNetwork, targetNetwork, tau);
+    }
 
+    /**
+     * Polyak update written to a separate network: {@code target = tau * source + (1 - tau) * base}. Source and base
+     * are only read, so they may be used by other threads meanwhile as long as nobody writes their parameters.
+     */
+    public static void softUpdate(DQN sourceNetwork, DQN baseNetwork, DQN targetNetwork, double tau) {
+        if (sourceNetwork.numLayers() != targetNetwork.numLayers() || baseNetwork.numLayers() != targetNetwork.numLayers()) {
+            throw new IllegalArgumentException(String.format("Source, base and target networks must have the same number of layers. (%d, %d, %d)", sourceNetwork.numLayers(), baseNetwork.numLayers(), targetNetwork.numLayers()));
+        }
+
+        for (int i = 0; i < sourceNetwork.numLayers(); i++) {
+            List<ParameterBlock> source = sourceNetwork.getLayer(i).getParameterBlocks();
+            List<ParameterBlock> base = baseNetwork.getLayer(i).getParameterBlocks();
+            Layer targetLayer = targetNetwork.getLayer(i);
+            List<ParameterBlock> target = targetLayer.getParameterBlocks();
+            if (source.size() != target.size() || base.size() != target.size()) {
+                throw new IllegalArgumentException("Layer " + i + " of the source, base and target networks differ in their parameters.");
+            }
+            for (int b = 0; b < source.size(); b++) {
+                target.get(b).blend(source.get(b), base.get(b), tau);
+            }
+            targetLayer.parametersUpdated();
+        }
+    }
 
     public int getInputSize() {
         return inputSize;
@@ -103,6 +219,12 @@ public class DQN extends NN {
         return layers.getLast();
     }
 
+    public void setPrecision(Precision precision) {
+        for (Layer layer : layers) {
+            layer.setPrecision(precision);
+        }
+    }
+
     public void setOptimizer(Optimizer optimizer) {
         this.optimizer = optimizer;
     }
@@ -0,0 +1,456 @@
+package Structures;
+
+import java.util.List;
+
+/**
+ * A DQN compiled for one batch size: every activation and gradient buffer is allocated once, when the plan is
+ * built, and reused by every forward and backward pass, so steady-state training and inference do not allocate
+ * them again.
+ * <p>
+ * Each layer becomes a step bound to its input, output and gradient buffers at compile time and called through
+ * the layer's typed {@code computeInto}/{@code backpropagateInto} methods, so no pass goes through {@code Object}
+ * or {@code instanceof}. A Flatten step of a batch of one is a zero-copy view and costs nothing. Layer types the
+ * plan does not know fall back to {@link Layer#compute(Object)} and {@link Layer#backpropagate(Object, Object)}.
+ * </p>
+ * <p>
+ * An inference plan ({@link DQN#compileInference(int)}) keeps no intermediates and cannot run backward: the layers
+ * write alternately into two scratch arenas, each sized for the widest layer, and BatchNorm always uses its running
+ * statistics without updating them. Such a plan writes nothing of the network, so each thread may run its own
+ * inference plan of the same network concurrently, as long as no parameters change meanwhile.
+ * </p>
+ * <p>
+ * The returned output and the stored activations are overwritten by the next call, and a plan keeps the layers the
+ * network had when it was compiled (see {@link #isCurrent()}). Build one with {@link DQN#compile(int)}.
+ * </p>
+ */
+public final class ExecutionPlan {
+    private final DQN network;
+    private final Layer[] layers;
+    private final int batchSize;
+    private final boolean inference;
+    private final Step[] steps;
+
+    // Inference only: the two [maxSize x batch] arenas for matrices, and the two per-sample arenas for Tensors
+    private final double[][] denseArenas;
+    private final double[][][] sampleArenas;
+
+    // The network input, one of which is null, and the output with its loss gradient
+    private final MatrixDouble denseInput;
+    private final Tensor[] spatialInput;
+    private final MatrixDouble output, outputGradient;
+
+    ExecutionPlan(DQN network, int batchSize, boolean inference) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive, got " + batchSize);
+        }
+        this.network = network;
+        this.layers = network.getLayers().toArray(new Layer[0]);
+        this.batchSize = batchSize;
+        this.inference = inference;
+        this.steps = new Step[layers.length];
+
+        Layer first = layers[0];
+        int[] inputShape;
+        if (first instanceof ConvLayer conv) {
+            inputShape = new int[]{conv.getInputDepth(), conv.getInputHeight(), conv.getInputWidth()};
+        } else if (first instanceof BatchNormLayer batchNorm) {
+            inputShape = new int[]{batchNorm.getDepth(), batchNorm.getHeight(), batchNorm.getWidth()};
+        } else if (first instanceof FlattenLayer flatten) {
+            inputShape = new int[]{flatten.getInputDepth(), flatten.getInputHeight(), flatten.getInputWidth()};
+        } else {
+            inputShape = new int[]{first.getInputSize()};
+        }
+
+        if (inference) {
+            // Every layer reads the previous layer's output, so the widest boundary bounds both arenas
+            int maxSize = 1;
+            for (int size : inputShape) {
+                maxSize *= size;
+            }
+            for (Layer layer : layers) {
+                maxSize = Math.max(maxSize, layer.getOutputSize());
+            }
+            denseArenas = new double[2][maxSize * batchSize];
+            sampleArenas = new double[2][batchSize][maxSize];
+        } else {
+            denseArenas = null;
+            sampleArenas = null;
+        }
+
+        Buffers buffers = inputShape.length == 1
+                ? dense(inputShape[0], 0)
+                : spatial(inputShape[0], inputShape[1], inputShape[2], 0);
+        denseInput = buffers.matrix;
+        spatialInput = buffers.tensors;
+
+        for (int i = 0; i < layers.length; i++) {
+            steps[i] = compileStep(layers[i], buffers);
+            buffers = steps[i].outputs();
+        }
+        if (buffers.matrix == null) {
+            throw new IllegalArgumentException("The network's last layer must produce a MatrixDouble.");
+        }
+        output = buffers.matrix;
+        outputGradient = steps[steps.length - 1].outputGradient();
+    }
+
+    private Step compileStep(Layer layer, Buffers in) {
+        if (layer instanceof MLPLayer mlp && in.matrix != null) {
+            return new DenseStep(mlp, in);
+        }
+        if (layer instanceof ConvLayer conv && in.tensors != null) {
+            return new ConvStep(conv, in);
+        }
+        if (layer instanceof BatchNormLayer batchNorm && in.tensors != null) {
+            return new BatchNormStep(batchNorm, in);
+        }
+        if (layer instanceof FlattenLayer flatten && in.tensors != null) {
+            return new FlattenStep(flatten, in);
+        }
+        return new GenericStep(layer, in);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Whether this plan was compiled with {@link DQN#compileInference(int)} and so only runs forward.
+     */
+    public boolean isInference() {
+        return inference;
+    }
+
+    /**
+     * Whether the network still has the layers this plan was compiled for. A plan must be rebuilt after the
+     * network's layers are replaced, e.g. by {@link DQN#loadNN(String)}.
+     */
+    public boolean isCurrent() {
+        List<Layer> current = network.getLayers();
+        if (current.size() != layers.length) {
+            return false;
+        }
+        for (int i = 0; i < layers.length; i++) {
+            if (current.get(i) != layers[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forward pass of the given states, written straight into the plan's input buffer: column vectors
+     * become its columns, Tensors its samples.
+     *
+     * @return the [outputSize x batch] output, owned by the plan
+     */
+    public MatrixDouble forward(List<?> states) {
+        if (states.size() != batchSize) {
+            throw new IllegalArgumentException("Plan was compiled for a batch of " + batchSize + ", got " + states.size());
+        }
+        if (denseInput != null) {
+            int rows = denseInput.getRows();
+            double[] in = denseInput.getData();
+            for (int b = 0; b < batchSize; b++) {
+                if (!(states.get(b) instanceof MatrixDouble state) || state.getRows() != rows || state.getCols() != 1) {
+                    throw new IllegalArgumentException("Expected every state to be a [" + rows + " x 1] MatrixDouble.");
+                }
+                double[] column = state.getData();
+                for (int r = 0; r < rows; r++) {
+                    in[r * batchSize + b] = column[r];
+                }
+            }
+        } else {
+            for (int b = 0; b < batchSize; b++) {
+                if (!(states.get(b) instanceof Tensor state)) {
+                    throw new IllegalArgumentException("Expected every state to be a Tensor.");
+                }
+                copySample(state, spatialInput[b]);
+            }
+        }
+        return run();
+    }
+
+    /**
+     * Forward pass of a [inputSize x batch] batch, which is copied into the plan's input buffer.
+     */
+    public MatrixDouble forward(MatrixDouble input) {
+        if (denseInput == null) {
+            throw new IllegalArgumentException("This network takes Tensor inputs.");
+        }
+        if (input.getRows() != denseInput.getRows() || input.getCols() != batchSize) {
+            throw new IllegalArgumentException("Expected input of " + denseInput.dims() + ", got " + input.dims());
+        }
+        MatrixDouble.copy(input, denseInput);
+        return run();
+    }
+
+    /**
+     * Forward pass of a batch of Tensors, which are copied into the plan's input buffer.
+     */
+    public MatrixDouble forward(Tensor[] input) {
+        if (spatialInput == null) {
+            throw new IllegalArgumentException("This network takes MatrixDouble inputs.");
+        }
+        if (input.length != batchSize) {
+            throw new IllegalArgumentException("Plan was compiled for a batch of " + batchSize + ", got " + input.length);
+        }
+        for (int b = 0; b < batchSize; b++) {
+            copySample(input[b], spatialInput[b]);
+        }
+        return run();
+    }
+
+    private static void copySample(Tensor source, Tensor target) {
+        if (source.getDepth() != target.getDepth() || source.getHeight() != target.getHeight() || source.getWidth() != target.getWidth()) {
+            throw new IllegalArgumentException("Expected input of " + target.getDepth() + "x" + target.getHeight() + "x" + target.getWidth()
+                    + ", got " + source.getDepth() + "x" + source.getHeight() + "x" + source.getWidth());
+        }
+        System.arraycopy(source.getData(), 0, target.getData(), 0, target.size());
+    }
+
+    private MatrixDouble run() {
+        for (Step step : steps) {
+            step.forward();
+        }
+        return output;
+    }
+
+    /**
+     * Backpropagates the mean squared error between the output of the last forward pass and target, then takes a
+     * single optimizer step, exactly as {@link DQN#backpropagate(Object, MatrixDouble, List)} does.
+     *
+     * @param target [outputSize x batch] target Q-values, one column per sample
+     */
+    public void backward(MatrixDouble target) {
+        if (inference) {
+            throw new IllegalStateException("This plan was compiled for inference and keeps no activations to backpropagate.");
+        }
+        // d/dOutput of the mean over the batch of 0.5 * (output - target)^2
+        MatrixDouble.subtractInto(output, target, outputGradient);
+        outputGradient.divide(batchSize);
+
+        for (int i = steps.length - 1; i >= 0; i--) {
+            steps[i].backward();
+        }
+        network.optimizerStep();
+    }
+
+    /**
+     * One layer's activations and gradients at a layer boundary: a [features x batch] matrix or a Tensor per sample.
+     * In an inference plan there are no gradients and the activations are views of arena slot.
+     */
+    private static final class Buffers {
+        final MatrixDouble matrix, gradientMatrix;
+        final Tensor[] tensors, gradientTensors;
+        final int slot;
+
+        private Buffers(MatrixDouble matrix, MatrixDouble gradientMatrix, Tensor[] tensors, Tensor[] gradientTensors, int slot) {
+            this.matrix = matrix;
+            this.gradientMatrix = gradientMatrix;
+            this.tensors = tensors;
+            this.gradientTensors = gradientTensors;
+            this.slot = slot;
+        }
+
+        /** The arena slot a step reading these buffers writes its output to. */
+        int nextSlot() {
+            return 1 - slot;
+        }
+    }
+
+    private Buffers dense(int rows, int slot) {
+        if (inference) {
+            return new Buffers(MatrixDouble.wrap(denseArenas[slot], rows, batchSize), null, null, null, slot);
+        }
+        return new Buffers(new MatrixDouble(rows, batchSize), new MatrixDouble(rows, batchSize), null, null, slot);
+    }
+
+    private Buffers spatial(int depth, int height, int width, int slot) {
+        if (inference) {
+            Tensor[] tensors = new Tensor[batchSize];
+            for (int b = 0; b < batchSize; b++) {
+                tensors[b] = new Tensor(sampleArenas[slot][b], depth, height, width);
+            }
+            return new Buffers(null, null, tensors, null, slot);
+        }
+        return new Buffers(null, null, Tensor.newBatch(batchSize, depth, height, width), Tensor.newBatch(batchSize, depth, height, width), slot);
+    }
+
+    /**
+     * A layer bound to its buffers. The input buffers belong to the previous step; forward fills this step's
+     * output, backward reads this step's output gradient and fills the input gradient.
+     */
+    private abstract static class Step {
+        final Buffers in;
+        Buffers out;
+
+        Step(Buffers in) {
+            this.in = in;
+        }
+
+        Buffers outputs() {
+            return out;
+        }
+
+        MatrixDouble outputGradient() {
+            return out.gradientMatrix;
+        }
+
+        abstract void forward();
+
+        abstract void backward();
+    }
+
+    private final class DenseStep extends Step {
+        private final MLPLayer layer;
+
+        DenseStep(MLPLayer layer, Buffers in) {
+            super(in);
+            this.layer = layer;
+            out = dense(layer.getOutputSize(), in.nextSlot());
+        }
+
+        @Override
+        void forward() {
+            layer.computeInto(in.matrix, out.matrix);
+        }
+
+        @Override
+        void backward() {
+            layer.backpropagateInto(in.matrix, out.gradientMatrix, in.gradientMatrix);
+        }
+    }
+
+    private final class ConvStep extends Step {
+        private final ConvLayer layer;
+        // An inference plan has its own scratch so that it never shares the layer's with another thread
+        private final ConvLayer.Workspace workspace;
+
+        ConvStep(ConvLayer layer, Buffers in) {
+            super(in);
+            this.layer = layer;
+            this.workspace = inference ? new ConvLayer.Workspace() : layer.workspace();
+            out = spatial(layer.getOutputDepth(), layer.getOutputHeight(), layer.getOutputWidth(), in.nextSlot());
+        }
+
+        @Override
+        void forward() {
+            layer.computeInto(in.tensors, out.tensors, workspace);
+        }
+
+        @Override
+        void backward() {
+            layer.backpropagateInto(in.tensors, out.gradientTensors, in.gradientTensors);
+        }
+    }
+
+    private final class BatchNormStep extends Step {
+        private final BatchNormLayer layer;
+
+        BatchNormStep(BatchNormLayer layer, Buffers in) {
+            super(in);
+            this.layer = layer;
+            out = spatial(layer.getDepth(), layer.getHeight(), layer.getWidth(), in.nextSlot());
+        }
+
+        @Override
+        void forward() {
+            if (inference) {
+                layer.computeInto(in.tensors, out.tensors, false);
+            } else {
+                layer.computeInto(in.tensors, out.tensors);
+            }
+        }
+
+        @Override
+        void backward() {
+            layer.backpropagateInto(in.tensors, out.gradientTensors, in.gradientTensors);
+        }
+    }
+
+    /**
+     * For a batch of one, the output and output gradient are views of the input and input gradient, so both
+     * directions are free; larger batches interleave the samples into columns and back.
+     */
+    private final class FlattenStep extends Step {
+        private final FlattenLayer layer;
+        private final boolean view;
+
+        FlattenStep(FlattenLayer layer, Buffers in) {
+            super(in);
+            this.layer = layer;
+            Tensor sample = in.tensors[0];
+            if (sample.getDepth() != layer.getInputDepth() || sample.getHeight() != layer.getInputHeight() || sample.getWidth() != layer.getInputWidth()) {
+                throw new IllegalArgumentException("FlattenLayer expects " + layer.getInputDepth() + "x" + layer.getInputHeight() + "x" + layer.getInputWidth()
+                        + " inputs, the previous layer produces " + sample.getDepth() + "x" + sample.getHeight() + "x" + sample.getWidth());
+            }
+            view = batchSize == 1;
+            if (view) {
+                out = new Buffers(in.tensors[0].asMatrix(), inference ? null : in.gradientTensors[0].asMatrix(), null, null, in.slot);
+            } else {
+                out = dense(layer.getOutputSize(), in.nextSlot());
+            }
+        }
+
+        @Override
+        void forward() {
+            if (!view) {
+                layer.computeInto(in.tensors, out.matrix);
+            }
+        }
+
+        @Override
+        void backward() {
+            if (!view) {
+                layer.backpropagateInto(out.gradientMatrix, in.gradientTensors);
+            }
+        }
+    }
+
+    /**
+     * Any other layer, run through its Object-based methods. Dense inputs are assumed to give a
+     * [outputSize x batch] matrix and Tensor inputs Tensors of the same shape. Results are copied into plan-owned
+     * buffers so the steps around it stay bound to fixed memory; the layer itself still allocates.
+     */
+    private final class GenericStep extends Step {
+        private final Layer layer;
+
+        GenericStep(Layer layer, Buffers in) {
+            super(in);
+            this.layer = layer;
+            if (in.matrix != null) {
+                out = dense(layer.getOutputSize(), in.nextSlot());
+                return;
+            }
+            Tensor sample = in.tensors[0];
+            if (layer.getOutputSize() != sample.size()) {
+                throw new IllegalArgumentException("Cannot plan " + layer.getClass().getSimpleName() + ": its Tensor output shape is unknown.");
+            }
+            out = spatial(sample.getDepth(), sample.getHeight(), sample.getWidth(), in.nextSlot());
+        }
+
+        @Override
+        void forward() {
+            copy(layer.compute(in.matrix != null ? in.matrix : in.tensors), out.matrix, out.tensors);
+        }
+
+        @Override
+        void backward() {
+            Object gradient = layer.backpropagate(in.matrix != null ? in.matrix : in.tensors,
+                    out.matrix != null ? out.gradientMatrix : out.gradientTensors);
+            copy(gradient, in.gradientMatrix, in.gradientTensors);
+        }
+
+        private static void copy(Object source, MatrixDouble matrix, Tensor[] tensors) {
+            if (matrix != null) {
+                MatrixDouble.copy((MatrixDouble) source, matrix);
+            } else {
+                Tensor[] samples = (Tensor[]) source;
+                for (int b = 0; b < tensors.length; b++) {
+                    System.arraycopy(samples[b].getData(), 0, tensors[b].getData(), 0, tensors[b].size());
+                }
+            }
+        }
+    }
+}
@@ -41,10 +41,46 @@ public class FlattenLayer extends Layer {
 
     @Override
     public Object compute(Object input) {
-        if (!(input instanceof Tensor tensorInput)) {
-            throw new IllegalArgumentException("Expected input to be a Tensor.");
+        if (input instanceof Tensor tensorInput) {
+            return compute(new Tensor[]{tensorInput});
+        }
+        if (!(input instanceof Tensor[] batch)) {
+            throw new IllegalArgumentException("Expected input to be a Tensor or Tensor[].");
+        }
+
+        // A single sample's flat buffer already is its column, so it is returned as a view without copying
+        if (batch.length == 1) {
+            checkDimensions(batch[0]);
+            return batch[0].asMatrix();
+        }
+
+        MatrixDouble output = new MatrixDouble(outputSize, batch.length);
+        computeInto(batch, output);
+        return output;
+    }
+
+    /**
+     * Writes the batch into a preallocated [outputSize x batch] matrix, one column per sample.
+     */
+    void computeInto(Tensor[] batch, MatrixDouble output) {
+        if (output.getRows() != outputSize || output.getCols() != batch.length) {
+            throw new IllegalArgumentException("Output must be [" + outputSize + " x " + batch.length + "], got " + output.dims());
+        }
+        for (Tensor sample : batch) {
+            checkDimensions(sample);
         }
 
+        // One column per sample: interleaving the samples is a transpose, which needs a copy
+        double[] out = output.getData();
+        for (int b = 0; b < batch.length; b++) {
+            double[] in = batch[b].getData();
+            for (int i = 0; i < outputSize; i++) {
+                out[i * batch.length + b] = in[i];
+            }
+        }
+    }
+
+    private void checkDimensions(Tensor tensorInput) {
         if (tensorInput.getDepth() != inputDepth ||
                 tensorInput.getHeight() != inputHeight ||
                 tensorInput.getWidth() != inputWidth) {
@@ -55,38 +91,43 @@ public class FlattenLayer extends Layer {
                     )
             );
         }
-
-        MatrixDouble output = new MatrixDouble(outputSize, 1);
-        int index = 0;
-        for (int d = 0; d < inputDepth; d++) {
-            for (int h = 0; h < inputHeight; h++) {
-                for (int w = 0; w < inputWidth; w++) {
-                    output.set(0, index++, tensorInput.get(d, h, w));
-                }
-            }
-        }
-        return output;
     }
 
     @Override
     public Object backpropagate(Object input, Object gradientOutput) {
-        if (!(input instanceof Tensor tensorInput)) {
-            throw new IllegalArgumentException("Expected input to be a Tensor.");
+        if (!(input instanceof Tensor) && !(input instanceof Tensor[])) {
+            throw new IllegalArgumentException("Expected input to be a Tensor or Tensor[].");
         }
         if (!(gradientOutput instanceof MatrixDouble matrixGradientOutput)) {
             throw new IllegalArgumentException("Expected gradientOutput to be a MatrixDouble.");
         }
 
-        Tensor gradientInput = new Tensor(inputDepth, inputHeight, inputWidth);
-        int index = 0;
-        for (int d = 0; d < inputDepth; d++) {
-            for (int h = 0; h < inputHeight; h++) {
-                for (int w = 0; w < inputWidth; w++) {
-                    gradientInput.set(d, h, w, matrixGradientOutput.get(0, index++));
-                }
+        int batch = matrixGradientOutput.getCols();
+        Tensor[] gradientInput;
+        if (batch == 1) {
+            gradientInput = new Tensor[]{matrixGradientOutput.asTensor(inputDepth, inputHeight, inputWidth)};
+        } else {
+            gradientInput = Tensor.newBatch(batch, inputDepth, inputHeight, inputWidth);
+            backpropagateInto(matrixGradientOutput, gradientInput);
+        }
+        return input instanceof Tensor ? gradientInput[0] : gradientInput;
+    }
+
+    /**
+     * Splits the columns of gradientOutput back into the preallocated per-sample gradients.
+     */
+    void backpropagateInto(MatrixDouble gradientOutput, Tensor[] gradientInput) {
+        int batch = gradientOutput.getCols();
+        if (gradientOutput.getRows() != outputSize || gradientInput.length != batch) {
+            throw new IllegalArgumentException("Expected a [" + outputSize + " x " + gradientInput.length + "] gradient, got " + gradientOutput.dims());
+        }
+        double[] grad = gradientOutput.getData();
+        for (int b = 0; b < batch; b++) {
+            double[] out = gradientInput[b].getData();
+            for (int i = 0; i < outputSize; i++) {
+                out[i] = grad[i * batch + b];
             }
         }
-        return gradientInput;
     }
 
     @Override
@@ -94,6 +135,18 @@ public class FlattenLayer extends Layer {
         // No parameters to update
     }
 
+    public int getInputDepth() {
+        return inputDepth;
+    }
+
+    public int getInputHeight() {
+        return inputHeight;
+    }
+
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
     @Override
     public String toString() {
         return "FlattenLayer: in:" + inputSize + "\tout:" + outputSize;
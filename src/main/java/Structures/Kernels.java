@@ -0,0 +1,113 @@
+package Structures;
+
+import java.util.stream.IntStream;
+
+/**
+ * Hot numeric loops shared by MatrixDouble and the layers.
+ * <p>
+ * A Vector API implementation is used when the {@code jdk.incubator.vector} module is
+ * present (start the JVM with {@code --add-modules jdk.incubator.vector}); otherwise the
+ * scalar implementation is used. Set {@code -DStructures.simd=false} to force the scalar path.
+ * </p>
+ * All array arguments are flat row-major buffers addressed with an explicit offset and length.
+ */
+abstract class Kernels {
+    static final Kernels INSTANCE = select();
+    static final int PARALLEL_CHUNK = 1 << 14; // elements below which a sweep stays on the calling thread
+
+    private static Kernels select() {
+        boolean enabled = Boolean.parseBoolean(System.getProperty("Structures.simd", "true"));
+        if (enabled && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded by name so this class never links against the incubator module when it is absent
+                Kernels vectorKernels = (Kernels) Class.forName("Structures.VectorKernels").getDeclaredConstructor().newInstance();
+                if (vectorKernels.gemmTileWidth() > 1) {
+                    return vectorKernels;
+                }
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall through to the scalar kernels
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /**
+     * Runs an element-wise sweep over [offset, offset + length): on the calling thread for short ranges, otherwise
+     * split into {@link #PARALLEL_CHUNK} sized chunks that run in parallel. The sweep must only touch its own range.
+     */
+    static void forEachChunk(int offset, int length, RangeConsumer sweep) {
+        if (length <= PARALLEL_CHUNK) {
+            sweep.accept(offset, length);
+            return;
+        }
+        int chunks = (length + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int start = offset + c * PARALLEL_CHUNK;
+            sweep.accept(start, Math.min(PARALLEL_CHUNK, offset + length - start));
+        });
+    }
+
+    @FunctionalInterface
+    interface RangeConsumer {
+        void accept(int offset, int length);
+    }
+
+    /**
+     * Number of output columns (NR) the GEMM micro-kernel produces per call.
+     */
+    abstract int gemmTileWidth();
+
+    /**
+     * Accumulates a 4 x NR tile of C from packed panels: 4-row strips of A and NR-column strips of B,
+     * both laid out one depth step after another. Only the top-left {@code mr x nr} corner is written.
+     */
+    abstract void gemmMicroKernel(double[] packedA, int aOffset, double[] packedB, int bOffset, int kc,
+                                  double[] c, int cOffset, int cStride, int mr, int nr);
+
+    /** out[i] = a[i] + b[i] */
+    abstract void add(double[] a, double[] b, double[] out, int offset, int length);
+
+    /** out[i] = a[i] - b[i] */
+    abstract void subtract(double[] a, double[] b, double[] out, int offset, int length);
+
+    /** out[i] = a[i] * b[i] */
+    abstract void multiply(double[] a, double[] b, double[] out, int offset, int length);
+
+    /**
+     * out[i] = a[i] / b[i]
+     *
+     * @throws IllegalArgumentException if any divisor is zero
+     */
+    abstract void divide(double[] a, double[] b, double[] out, int offset, int length);
+
+    /** out[i] = a[i] * scalar */
+    abstract void scale(double[] a, double scalar, double[] out, int offset, int length);
+
+    /** out[i] = sqrt(a[i]) */
+    abstract void sqrt(double[] a, double[] out, int offset, int length);
+
+    /** y[yOffset + i] += alpha * x[xOffset + i] */
+    abstract void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    /** out[i] = alpha * x[i] + beta * y[i]; out may be y */
+    abstract void axpby(double alpha, double[] x, double beta, double[] y, double[] out, int offset, int length);
+
+    abstract double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * Single-precision dot product, accumulated in float.
+     */
+    abstract float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    abstract double sum(double[] a, int offset, int length);
+
+    abstract double sumOfSquares(double[] a, int offset, int length);
+
+    /**
+     * One fused Adam step over [offset, offset + length), updating m, v and param in place:
+     * {@code m = beta1 m + (1 - beta1) g}, {@code v = beta2 v + (1 - beta2) g^2} and
+     * {@code param = decay * param - stepSize * m / (sqrt(v * secondMomentScale) + epsilon)}.
+     */
+    abstract void adam(double[] param, double[] gradient, double[] m, double[] v, int offset, int length,
+                       double beta1, double beta2, double stepSize, double secondMomentScale, double epsilon, double decay);
+}
@@ -10,11 +10,17 @@ import java.util.List;
  * and includes methods for computing outputs, copying parameters, and
  * performing backpropagation.
  * </p>
+ * <p>
+ * Layers accept a whole minibatch at once: dense data is a MatrixDouble of shape
+ * [features x batch] (one column per sample) and spatial data is a {@code Tensor[]}
+ * with one Tensor per sample. A single sample is simply a batch of one.
+ * </p>
  */
 public abstract class Layer implements Serializable {
     protected double alpha=0.001f; // LR for optimizers
     protected int inputSize;
     protected int outputSize;
+    protected Precision precision = Precision.DOUBLE;
 
     public abstract Object compute(Object input);
     /**
@@ -47,6 +53,43 @@ public abstract class Layer implements Serializable {
         this.alpha = alpha;
     }
 
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets the precision used by this layer's forward pass. Layers without a reduced-precision path ignore it.
+     */
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+    }
+
+    /**
+     * Whether this layer's forward pass has a {@link Precision#FLOAT} path; layers without one always run in double.
+     */
+    public boolean hasFloatPath() {
+        return false;
+    }
+
+    /**
+     * Notifies the layer that its parameters were modified in place from outside the layer
+     * (e.g. by an optimizer or a target network update), so any derived caches must be rebuilt.
+     */
+    public void parametersUpdated() {}
+
+    /**
+     * This layer's parameter tensors, always in the same order; empty for layers without parameters.
+     */
+    public List<ParameterBlock> getParameterBlocks() {
+        return List.of();
+    }
+
+    /**
+     * Switches the layer between training and inference behaviour. Only layers that behave differently
+     * at inference, such as batch normalization using its running statistics, override this.
+     */
+    public void setTraining(boolean training) {}
+
     public static String toString(List<Layer> layers) {
         StringBuilder sb = new StringBuilder();
         for (Layer layer : layers) {
@@ -60,8 +103,9 @@ public abstract class Layer implements Serializable {
      *
      * @param input the input to the layer.
      * @param gradientOutput the gradient of the loss with respect to the output of the layer.
-     *                       - Can be either MatrixDouble or Tensor
+     *                       - Can be either MatrixDouble, Tensor or Tensor[], matching the layer's output
      * @return the gradient of the loss with respect to the input of the layer.
+     *         The layer's parameter gradients are overwritten with their sum over the batch.
      */
     public abstract Object backpropagate(Object input, Object gradientOutput);
     public abstract void updateParameters(double learningRate);
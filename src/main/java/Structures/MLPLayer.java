@@ -3,6 +3,8 @@ package Structures;
 import Tools.math;
 import Training.ActivationFunctions.ActivationFunction;
 
+import java.util.List;
+
 /**
  * Represents a Multi-Layer Perceptron (MLP) layer in a neural network.
  * <p>
@@ -13,7 +15,9 @@ import Training.ActivationFunctions.ActivationFunction;
  */
 public class MLPLayer extends Layer {
     private static final double CLIP_THRESHOLD = 1.0f; // Threshold for gradient clipping
-    private static final double LOSS_SCALE = 128.0f;
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+    // Per-thread single-precision copy of the input, so concurrent forward passes never share it
+    private static final ThreadLocal<float[][]> INPUT32 = ThreadLocal.withInitial(() -> new float[1][0]);
 
     MatrixDouble weights, biases;
     MatrixDouble gradientWeights, gradientBiases;
@@ -25,6 +29,16 @@ public class MLPLayer extends Layer {
     public MatrixDouble mBias;
     public MatrixDouble vBias;
 
+    // Scratch buffers reused between backward passes
+    private transient MatrixDouble gradientInput, activationDerivative;
+
+    // Single-precision snapshot of the weights used by the forward pass when precision is FLOAT
+    private transient float[] weights32;
+    private transient boolean weights32Stale = true;
+
+    // Weights and biases with their gradients and Adam moments, as seen by optimizers
+    private transient List<ParameterBlock> parameterBlocks;
+
     public MLPLayer(int inputSize, int outputSize, ActivationFunction activation, double bias, double lambda) {
         this.inputSize = inputSize;
         this.outputSize = outputSize;
@@ -58,6 +72,8 @@ public class MLPLayer extends Layer {
         MatrixDouble.copy(this.gradientWeights, target.gradientWeights);
         MatrixDouble.copy(this.gradientBiases, target.gradientBiases);
         target.phi = this.phi;
+        target.precision = this.precision;
+        target.parametersUpdated();
 
         if (ignorePrimitives) return;
 
@@ -79,17 +95,93 @@ public class MLPLayer extends Layer {
             throw new IllegalArgumentException("Expected input to be a MatrixDouble.");
         }
 
-        MatrixDouble result = MatrixDouble.multiply(weights, matrixInput);
-        result.add(biases);
+        MatrixDouble output = new MatrixDouble(outputSize, matrixInput.cols);
+        computeInto(matrixInput, output);
+        return output;
+    }
+
+    @Override
+    public boolean hasFloatPath() {
+        return true;
+    }
+
+    /**
+     * Writes {@code phi(weights * input + biases)} into a preallocated [outputSize x batch] matrix.
+     */
+    void computeInto(MatrixDouble input, MatrixDouble output) {
+        if (precision == Precision.FLOAT) {
+            computeFloat(input, output);
+        } else {
+            MatrixDouble.multiplyAddActivateInto(weights, input, biases, phi, output);
+        }
+    }
 
-        // Apply activation function
-        for (int r = 0; r < result.rows; r++) {
-            for (int c = 0; c < result.cols; c++) {
-                result.set(c, r, phi.activate(result.get(c, r)));
+    /**
+     * Computes {@code phi(weights * input + biases)} into output, reading the weights and input as floats.
+     * Each output is a single-precision dot product of a weight row with an input column.
+     */
+    private void computeFloat(MatrixDouble input, MatrixDouble output) {
+        if (input.rows != inputSize) {
+            throw new IllegalArgumentException("A's columns must match B's rows ("+inputSize+"!="+input.rows+") - A.dims="+weights.dims()+", B.dims="+input.dims());
+        }
+        if (output.rows != outputSize || output.cols != input.cols) {
+            throw new IllegalArgumentException("Output must be [" + outputSize + " x " + input.cols + "], got " + output.dims());
+        }
+        float[] weights32 = refreshWeights32();
+
+        // Store input columns contiguously so each dot product streams both operands
+        int batch = input.cols;
+        double[] x = input.getData();
+        float[][] buffer = INPUT32.get();
+        if (buffer[0].length < inputSize * batch) buffer[0] = new float[inputSize * batch];
+        float[] input32 = buffer[0];
+        for (int p = 0; p < inputSize; p++) {
+            for (int c = 0; c < batch; c++) {
+                input32[c * inputSize + p] = (float) x[p * batch + c];
             }
         }
 
-        return result;
+        double[] out = output.getData();
+        double[] b = biases.getData();
+        for (int r = 0; r < outputSize; r++) {
+            for (int c = 0; c < batch; c++) {
+                out[r * batch + c] = KERNELS.dot(weights32, r * inputSize, input32, c * inputSize, inputSize) + b[r];
+            }
+        }
+        if (!phi.isIdentity()) {
+            phi.activate(out, out, 0, outputSize * batch);
+        }
+    }
+
+    /**
+     * Returns the single-precision weights, converting them first if they changed. Synchronized so forward
+     * passes on several threads never see a half-written snapshot.
+     */
+    private synchronized float[] refreshWeights32() {
+        if (weights32 == null || weights32Stale) {
+            double[] w = weights.getData();
+            if (weights32 == null) weights32 = new float[inputSize * outputSize];
+            for (int i = 0; i < weights32.length; i++) {
+                weights32[i] = (float) w[i];
+            }
+            weights32Stale = false;
+        }
+        return weights32;
+    }
+
+    @Override
+    public void parametersUpdated() {
+        weights32Stale = true;
+    }
+
+    @Override
+    public List<ParameterBlock> getParameterBlocks() {
+        if (parameterBlocks == null) {
+            parameterBlocks = List.of(
+                    new ParameterBlock(weights.getData(), gradientWeights.getData(), m.getData(), v.getData(), true),
+                    new ParameterBlock(biases.getData(), gradientBiases.getData(), mBias.getData(), vBias.getData(), false));
+        }
+        return parameterBlocks;
     }
 
     @Override
@@ -101,22 +193,36 @@ public class MLPLayer extends Layer {
             throw new IllegalArgumentException("Expected gradientOutput to be a MatrixDouble.");
         }
 
-        // Apply loss scaling
-        matrixGradientOutput = MatrixDouble.multiply(matrixGradientOutput, LOSS_SCALE);
+        gradientInput = MatrixDouble.ensureShape(gradientInput, inputSize, matrixGradientOutput.cols);
+        backpropagateInto(matrixInput, matrixGradientOutput, gradientInput);
+        return gradientInput;
+    }
+
+    /**
+     * Backward pass into a preallocated [inputSize x batch] input gradient. The weight and bias gradients are
+     * overwritten with their sum over the batch.
+     */
+    void backpropagateInto(MatrixDouble matrixInput, MatrixDouble matrixGradientOutput, MatrixDouble gradientInput) {
+        if (matrixInput.cols != matrixGradientOutput.cols) {
+            throw new IllegalArgumentException("Input and gradientOutput must have the same batch size ("+matrixInput.cols+"!="+matrixGradientOutput.cols+")");
+        }
+        int batch = matrixGradientOutput.cols;
 
-        this.gradientWeights = MatrixDouble.multiply(matrixGradientOutput, matrixInput.transpose());
-        this.gradientBiases = matrixGradientOutput;
+        // Parameter gradients are summed over the batch columns: dB = rowSums(dY), dW = dY * X^T
+        MatrixDouble.rowSumsInto(matrixGradientOutput, gradientBiases);
+        MatrixDouble.multiplyTransBInto(matrixGradientOutput, matrixInput, gradientWeights);
 
-        MatrixDouble gradientInput = MatrixDouble.multiply(weights.transpose(), matrixGradientOutput);
+        // dX = W^T * dY, read straight from the stored layout of W
+        MatrixDouble.multiplyTransAInto(weights, matrixGradientOutput, gradientInput);
 
         // Apply activation function derivative
-        for (int r = 0; r < gradientInput.rows; r++) {
-            for (int c = 0; c < gradientInput.cols; c++) {
-                gradientInput.set(c, r, gradientInput.get(c, r) * phi.derivative(matrixInput.get(c, r)));
-            }
+        if (!phi.isIdentity()) {
+            double[] grad = gradientInput.getData();
+            activationDerivative = MatrixDouble.ensureShape(activationDerivative, inputSize, batch);
+            double[] derivative = activationDerivative.getData();
+            phi.derivative(matrixInput.getData(), derivative, 0, inputSize * batch);
+            KERNELS.multiply(grad, derivative, grad, 0, inputSize * batch);
         }
-
-        return gradientInput;
     }
 
     @Override
@@ -133,17 +239,14 @@ public class MLPLayer extends Layer {
             gradientBiases.multiply(scale);
         }
 
-        // Normalize gradients
-        gradientWeights.divide(LOSS_SCALE);
-        gradientBiases.divide(LOSS_SCALE);
-
         // L2 regularization (weight decay)
         weights.multiply(1.0f - learningRate * lambda);
         biases.multiply(1.0f - learningRate * lambda);
 
         // Update weights and biases using the scaled gradients
-        weights.subtract(MatrixDouble.multiply(gradientWeights, learningRate));
-        biases.subtract(MatrixDouble.multiply(gradientBiases, learningRate));
+        MatrixDouble.axpy(-learningRate, gradientWeights, weights);
+        MatrixDouble.axpy(-learningRate, gradientBiases, biases);
+        parametersUpdated();
     }
 
     @Override
@@ -172,6 +275,8 @@ public class MLPLayer extends Layer {
             throw new IllegalArgumentException("New weights must have the same dimensions as the current weights.");
         }
         weights = newWeights;
+        parameterBlocks = null;
+        parametersUpdated();
     }
 
     public void setBiases(MatrixDouble newBiases) {
@@ -179,6 +284,7 @@ public class MLPLayer extends Layer {
             throw new IllegalArgumentException("New biases must have the same dimensions as the current biases.");
         }
         biases = newBiases;
+        parameterBlocks = null;
     }
 
     @Override
@@ -1,11 +1,13 @@
 package Structures;
 
 import Tools.math;
+import Training.ActivationFunctions.ActivationFunction;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.IntStream;
 
 /**
@@ -18,12 +20,22 @@ import java.util.stream.IntStream;
  */
 public class MatrixDouble implements Serializable {
     private static final int TILE_SIZE = 32;
-    private static final int UNROLL_FACTOR = 4;
     private static final int PARALLELISM_THRESHOLD = 1024;
     private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
-
-    private double[][] data;
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+
+    // GEMM blocking: MR x NR register micro-tile, MC x KC panel of A and KC x NC panel of B per cache block
+    private static final int MR = 4, NR = KERNELS.gemmTileWidth();
+    private static final int MC = 64, KC = 256, NC = 256;
+    private static final long GEMM_PARALLELISM_THRESHOLD = 64 * 64 * 64; // multiply-adds below which GEMM stays on the calling thread
+    private static final int GEMM_TASKS_PER_THREAD = 4;
+    private static final ThreadLocal<double[][]> PACK_BUFFERS = ThreadLocal.withInitial(() -> new double[][]{new double[MC * KC], new double[KC * NC]});
+
+    // Row-major storage: element (r, c) lives at data[r * stride + c].
+    // Rows are packed back to back (stride == cols), so element-wise kernels run as one linear sweep.
+    private double[] data;
     int rows, cols;
+    int stride;
 
     public MatrixDouble(int rows, int cols) {
         if (rows <= 0 || cols <= 0) {
@@ -31,17 +43,25 @@ public class MatrixDouble implements Serializable {
         }
         this.rows = rows;
         this.cols = cols;
+        this.stride = cols;
 
-        data = new double[rows][cols];
+        data = new double[rows * cols];
     }
 
     public MatrixDouble(double[][] data) {
         if (data == null || data.length == 0 || data[0].length == 0) {
             throw new IllegalArgumentException("Data array must be non-empty.");
         }
-        this.data = data;
         this.rows = data.length;
         this.cols = data[0].length;
+        this.stride = cols;
+        this.data = new double[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            if (data[i].length != cols) {
+                throw new IllegalArgumentException("Data array must be rectangular.");
+            }
+            System.arraycopy(data[i], 0, this.data, i * stride, cols);
+        }
     }
 
     public MatrixDouble(double[] data, int rows, int cols) {
@@ -53,114 +73,121 @@ public class MatrixDouble implements Serializable {
         }
         this.rows = rows;
         this.cols = cols;
-        this.data = new double[rows][cols];
-        for (int i = 0; i < rows; i++) {
-            System.arraycopy(data, i * cols, this.data[i], 0, cols);
-        }
+        this.stride = cols;
+        this.data = data.clone();
     }
 
-    public static MatrixDouble elementwiseSquare(MatrixDouble matrix) {
-        MatrixDouble result = new MatrixDouble(matrix.rows, matrix.cols);
-        for (int i = 0; i < matrix.rows; i++) {
-            for (int j = 0; j < matrix.cols; j++) {
-                result.data[i][j] = matrix.data[i][j] * matrix.data[i][j];
-            }
-        }
-        return result;
+    private MatrixDouble(int rows, int cols, double[] data) {
+        this.rows = rows;
+        this.cols = cols;
+        this.stride = cols;
+        this.data = data;
     }
 
-    public static MatrixDouble elementwiseSquareRoot(MatrixDouble matrix) {
-        MatrixDouble result = new MatrixDouble(matrix.rows, matrix.cols);
-        for (int i = 0; i < matrix.rows; i++) {
-            for (int j = 0; j < matrix.cols; j++) {
-                result.data[i][j] = Math.sqrt(matrix.data[i][j]);
-            }
+    /**
+     * Wraps the first {@code rows * cols} elements of data as a [rows x cols] matrix without copying them;
+     * writes through either object are seen by both.
+     */
+    public static MatrixDouble wrap(double[] data, int rows, int cols) {
+        if (rows <= 0 || cols <= 0) {
+            throw new IllegalArgumentException("Matrix dimensions must be positive.");
         }
-        return result;
+        if (data.length < rows * cols) {
+            throw new IllegalArgumentException("Data is too short for the specified dimensions");
+        }
+        return new MatrixDouble(rows, cols, data);
     }
 
-    public static MatrixDouble elementWiseDivide(MatrixDouble matrix, MatrixDouble divisor) {
-        if (matrix.rows != divisor.rows || matrix.cols != divisor.cols) {
-            throw new IllegalArgumentException("Matrices must have the same dimensions for element-wise division.");
-        }
+    /**
+     * A view of the same memory with a different shape holding the same number of elements.
+     */
+    public MatrixDouble reshape(int rows, int cols) {
+        return wrap(data, rows, cols);
+    }
 
-        MatrixDouble result = new MatrixDouble(matrix.rows, matrix.cols);
-        for (int i = 0; i < matrix.rows; i++) {
-            for (int j = 0; j < matrix.cols; j++) {
-                if (divisor.data[i][j] == 0) {
-                    throw new IllegalArgumentException("Division by zero encountered in matrix.");
-                }
-                result.data[i][j] = matrix.data[i][j] / divisor.data[i][j];
-            }
+    /**
+     * A [depth x height x width] view of the same memory, in row-major order. A single column
+     * (one sample) is exactly one flattened Tensor, so this undoes {@link Tensor#asMatrix()}.
+     */
+    public Tensor asTensor(int depth, int height, int width) {
+        return new Tensor(data, depth, height, width);
+    }
+
+    private int size() {
+        return rows * cols;
+    }
+
+    /**
+     * Returns the backing row-major array. Element (r, c) is stored at {@code r * getCols() + c}; a view
+     * made by {@link #wrap} may be backed by a longer array.
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns {@code buffer} if it already has the requested shape, otherwise allocates a new matrix.
+     * <p>
+     * Lets layers keep scratch matrices between calls without caring whether the batch size changed.
+     * </p>
+     */
+    public static MatrixDouble ensureShape(MatrixDouble buffer, int rows, int cols) {
+        if (buffer != null && buffer.rows == rows && buffer.cols == cols) {
+            return buffer;
         }
+        return new MatrixDouble(rows, cols);
+    }
 
-        return result;
+    public static MatrixDouble elementwiseSquare(MatrixDouble matrix) {
+        return elementwiseSquareInto(matrix, new MatrixDouble(matrix.rows, matrix.cols));
+    }
+
+    public static MatrixDouble elementwiseSquareRoot(MatrixDouble matrix) {
+        return elementwiseSquareRootInto(matrix, new MatrixDouble(matrix.rows, matrix.cols));
+    }
+
+    public static MatrixDouble elementWiseDivide(MatrixDouble matrix, MatrixDouble divisor) {
+        return elementWiseDivideInto(matrix, divisor, new MatrixDouble(matrix.rows, matrix.cols));
     }
 
     public static MatrixDouble subtract(MatrixDouble inputMatrix, double mean) {
-        MatrixDouble result = new MatrixDouble(inputMatrix.rows, inputMatrix.cols);
-        for (int i = 0; i < inputMatrix.rows; i++) {
-            for (int j = 0; j < inputMatrix.cols; j++) {
-                result.data[i][j] = inputMatrix.data[i][j] - mean;
-            }
-        }
-        return result;
+        return subtractInto(inputMatrix, mean, new MatrixDouble(inputMatrix.rows, inputMatrix.cols));
     }
 
     public void fill(double value) {
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                data[i][j] = value;
-            }
-        }
+        Arrays.fill(data, 0, size(), value);
     }
 
     public void randomize() {
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                data[i][j] = Math.random() * 2 - 1;
-            }
+        for (int i = 0, n = size(); i < n; i++) {
+            data[i] = Math.random() * 2 - 1;
         }
     }
     public void randomize(double min, double max) {
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                data[i][j] = math.randomDouble(min, max);
-            }
+        for (int i = 0, n = size(); i < n; i++) {
+            data[i] = math.randomDouble(min, max);
         }
     }
 
     public void add(double n) {
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                data[i][j] += n;
-            }
+        for (int i = 0, size = size(); i < size; i++) {
+            data[i] += n;
         }
     }
 
     public static MatrixDouble add(MatrixDouble matrix, double v) {
-        MatrixDouble result = new MatrixDouble(matrix.getRows(), matrix.getCols());
-        for (int r = 0; r < matrix.getRows(); r++) {
-            for (int c = 0; c < matrix.getCols(); c++) {
-                result.set(c, r, matrix.get(c, r) + v);
-            }
-        }
-        return result;
+        return addInto(matrix, v, new MatrixDouble(matrix.rows, matrix.cols));
     }
 
     public void add(int row, int column, double value) {
-        data[row][column] += value;
+        data[row * stride + column] += value;
     }
 
     public void add(MatrixDouble m) {
         if (rows != m.rows || cols != m.cols) {
             throw new IllegalArgumentException("The matrices must have the same dimensions.");
         }
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                data[i][j] += m.data[i][j];
-            }
-        }
+        KERNELS.add(data, m.data, data, 0, size());
     }
 
     public void subtract(double n) {
@@ -171,50 +198,32 @@ public class MatrixDouble implements Serializable {
         if (rows != m.rows || cols != m.cols) {
             throw new IllegalArgumentException("The matrices must have the same dimensions.");
         }
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                data[i][j] -= m.data[i][j];
-            }
-        }
+        KERNELS.subtract(data, m.data, data, 0, size());
     }
 
     public void multiply(double n) {
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                data[i][j] *= n;
-            }
-        }
+        KERNELS.scale(data, n, data, 0, size());
     }
 
     public double sumOfSquares() {
-        double sum = 0;
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                sum += data[i][j] * data[i][j];
-            }
-        }
-        return sum;
+        return KERNELS.sumOfSquares(data, 0, size());
     }
 
     public void divide(double scalar) {
         if (scalar == 0) {
             throw new ArithmeticException("Cannot divide by zero");
         }
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                data[i][j] /= scalar;
-            }
+        for (int i = 0, n = size(); i < n; i++) {
+            data[i] /= scalar;
         }
     }
 
     public static MatrixDouble divide(MatrixDouble matrix, double scalar) {
-        MatrixDouble result = matrix.copy();
-        result.divide(scalar);
-        return result;
+        return divideInto(matrix, scalar, new MatrixDouble(matrix.rows, matrix.cols));
     }
 
     public MatrixDouble transpose() {
-        return transpose(this.copy());
+        return transpose(this);
     }
 
     public String dims() {
@@ -222,28 +231,21 @@ public class MatrixDouble implements Serializable {
     }
 
     public MatrixDouble copy() {
-        double[][] newData = new double[rows][cols];
-        for (int i = 0; i < rows; i++) {
-            System.arraycopy(data[i], 0, newData[i], 0, cols);
-        }
-        return new MatrixDouble(newData);
+        return new MatrixDouble(rows, cols, Arrays.copyOf(data, size()));
     }
 
     public static void copy(MatrixDouble source, MatrixDouble target) {
         if (source.rows != target.rows || source.cols != target.cols) {
             throw new IllegalArgumentException("Source and target matrices must have the same dimensions.");
         }
-        for (int i = 0; i < source.rows; i++) {
-            System.arraycopy(source.data[i], 0, target.data[i], 0, source.cols);
-        }
+        System.arraycopy(source.data, 0, target.data, 0, source.size());
     }
 
     public MatrixDouble clip(double min, double max) {
         MatrixDouble result = new MatrixDouble(this.rows, this.cols);
-        for (int r = 0; r < this.rows; r++) {
-            for (int c = 0; c < this.cols; c++) {
-                result.set(c, r, Math.max(min, Math.min(max, this.get(c, r))));
-            }
+        double[] dst = result.data;
+        for (int i = 0, n = size(); i < n; i++) {
+            dst[i] = Math.max(min, Math.min(max, data[i]));
         }
         return result;
     }
@@ -257,7 +259,7 @@ public class MatrixDouble implements Serializable {
         for (int i = 0; i < rows; i++) {
             sb.append("\n[");
             for (int j = 0; j < cols; j++) {
-                double roundedVal = (double) Math.round(data[i][j] * multiplier) /multiplier;
+                double roundedVal = (double) Math.round(data[i * stride + j] * multiplier) /multiplier;
                 sb.append(roundedVal);
                 if (j < cols - 1) {
                     sb.append(",\t");
@@ -277,7 +279,7 @@ public class MatrixDouble implements Serializable {
             throw new IndexOutOfBoundsException(
                     String.format("Attempted to access element at (%d, %d) in a [%d x %d] matrix.", x, y, rows, cols));
         }
-        return data[y][x];
+        return data[y * stride + x];
     }
 
     public void set(int x, int y, double value) {
@@ -285,7 +287,7 @@ public class MatrixDouble implements Serializable {
             throw new IndexOutOfBoundsException(
                     String.format("Attempted to set element at (%d, %d) in a [%d x %d] matrix.", x, y, rows, cols));
         }
-        data[y][x] = value;
+        data[y * stride + x] = value;
     }
 
     /*
@@ -297,59 +299,148 @@ public class MatrixDouble implements Serializable {
      */
 
     public static MatrixDouble add(MatrixDouble a, MatrixDouble b) {
-        MatrixDouble res = a.copy();
+        return addInto(a, b, new MatrixDouble(a.rows, a.cols));
+    }
+
+    public static MatrixDouble subtract(MatrixDouble a, MatrixDouble b) {
+        return subtractInto(a, b, new MatrixDouble(a.rows, a.cols));
+    }
+
+    public static MatrixDouble multiply(MatrixDouble matrix, double value) {
+        return multiplyInto(matrix, value, new MatrixDouble(matrix.rows, matrix.cols));
+    }
+
+    public static MatrixDouble transpose(MatrixDouble matrix) {
+        return transposeInto(matrix, new MatrixDouble(matrix.cols, matrix.rows));
+    }
+
+    /*
+    -----------------------------------------------------------------------------
+
+    DESTINATION-PASSING ("INTO") VARIANTS
+
+    Each writes its result into a caller-owned matrix and returns it. Element-wise
+    variants may use one of their inputs as the destination; multiplyInto and
+    transposeInto may not.
+
+    -----------------------------------------------------------------------------
+     */
+
+    private static void checkSameShape(MatrixDouble a, MatrixDouble b) {
         if (a.rows != b.rows || a.cols != b.cols) {
-            throw new IllegalArgumentException("The matrices must have the same dimensions.");
+            throw new IllegalArgumentException("The matrices must have the same dimensions. (" + a.dims() + " != " + b.dims() + ")");
         }
+    }
 
-        for (int i = 0; i < res.rows; i++) {
-            for (int j = 0; j < res.cols; j++) {
-                res.data[i][j] = a.data[i][j] + b.data[i][j];
-            }
+    public static MatrixDouble addInto(MatrixDouble a, MatrixDouble b, MatrixDouble out) {
+        checkSameShape(a, b);
+        checkSameShape(a, out);
+        KERNELS.add(a.data, b.data, out.data, 0, a.size());
+        return out;
+    }
+
+    public static MatrixDouble addInto(MatrixDouble matrix, double value, MatrixDouble out) {
+        checkSameShape(matrix, out);
+        double[] src = matrix.data, dst = out.data;
+        for (int i = 0, n = matrix.size(); i < n; i++) {
+            dst[i] = src[i] + value;
         }
+        return out;
+    }
 
-        return res;
+    public static MatrixDouble subtractInto(MatrixDouble a, MatrixDouble b, MatrixDouble out) {
+        checkSameShape(a, b);
+        checkSameShape(a, out);
+        KERNELS.subtract(a.data, b.data, out.data, 0, a.size());
+        return out;
     }
 
-    public static MatrixDouble subtract(MatrixDouble a, MatrixDouble b) {
-        if (a.rows != b.rows || a.cols != b.cols) {
-            throw new IllegalArgumentException("The matrices must have the same dimensions.");
+    public static MatrixDouble subtractInto(MatrixDouble matrix, double value, MatrixDouble out) {
+        return addInto(matrix, -value, out);
+    }
+
+    public static MatrixDouble multiplyInto(MatrixDouble matrix, double value, MatrixDouble out) {
+        checkSameShape(matrix, out);
+        KERNELS.scale(matrix.data, value, out.data, 0, matrix.size());
+        return out;
+    }
+
+    public static MatrixDouble divideInto(MatrixDouble matrix, double scalar, MatrixDouble out) {
+        if (scalar == 0) {
+            throw new ArithmeticException("Cannot divide by zero");
         }
-        MatrixDouble res = new MatrixDouble(a.rows, a.cols);
-        for (int i = 0; i < res.rows; i++) {
-            for (int j = 0; j < res.cols; j++) {
-                res.data[i][j] = a.data[i][j] - b.data[i][j];
-            }
+        checkSameShape(matrix, out);
+        double[] src = matrix.data, dst = out.data;
+        for (int i = 0, n = matrix.size(); i < n; i++) {
+            dst[i] = src[i] / scalar;
         }
-        return res;
+        return out;
     }
 
-    public static MatrixDouble multiply(MatrixDouble matrix, double value) {
-        MatrixDouble res = matrix.copy();
-        res.multiply(value);
-        return res;
+    public static MatrixDouble elementwiseSquareInto(MatrixDouble matrix, MatrixDouble out) {
+        checkSameShape(matrix, out);
+        KERNELS.multiply(matrix.data, matrix.data, out.data, 0, matrix.size());
+        return out;
     }
 
-    public static MatrixDouble transpose(MatrixDouble matrix) {
-        int rows = matrix.data.length;
-        int cols = matrix.data[0].length;
-        MatrixDouble transposed = new MatrixDouble(cols, rows);
+    public static MatrixDouble elementwiseSquareRootInto(MatrixDouble matrix, MatrixDouble out) {
+        checkSameShape(matrix, out);
+        KERNELS.sqrt(matrix.data, out.data, 0, matrix.size());
+        return out;
+    }
 
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                transposed.data[j][i] = matrix.data[i][j];
+    public static MatrixDouble elementWiseDivideInto(MatrixDouble matrix, MatrixDouble divisor, MatrixDouble out) {
+        if (matrix.rows != divisor.rows || matrix.cols != divisor.cols) {
+            throw new IllegalArgumentException("Matrices must have the same dimensions for element-wise division.");
+        }
+        checkSameShape(matrix, out);
+        KERNELS.divide(matrix.data, divisor.data, out.data, 0, matrix.size());
+        return out;
+    }
+
+    /**
+     * Computes {@code y += alpha * x} in place.
+     */
+    public static void axpy(double alpha, MatrixDouble x, MatrixDouble y) {
+        checkSameShape(x, y);
+        KERNELS.axpy(alpha, x.data, 0, y.data, 0, x.size());
+    }
+
+    public static MatrixDouble transposeInto(MatrixDouble matrix, MatrixDouble out) {
+        int rows = matrix.rows;
+        int cols = matrix.cols;
+        if (out.rows != cols || out.cols != rows) {
+            throw new IllegalArgumentException("Destination must be the transposed shape of the source. (" + matrix.dims() + " -> " + out.dims() + ")");
+        }
+        if (out == matrix) {
+            throw new IllegalArgumentException("Cannot transpose a matrix into itself.");
+        }
+        double[] src = matrix.data, dst = out.data;
+        int srcStride = matrix.stride, dstStride = out.stride;
+
+        // Blocked so that both the row-major reads and the column-major writes stay within a few cache lines
+        for (int i0 = 0; i0 < rows; i0 += TILE_SIZE) {
+            int iMax = Math.min(i0 + TILE_SIZE, rows);
+            for (int j0 = 0; j0 < cols; j0 += TILE_SIZE) {
+                int jMax = Math.min(j0 + TILE_SIZE, cols);
+                for (int i = i0; i < iMax; i++) {
+                    int srcRow = i * srcStride;
+                    for (int j = j0; j < jMax; j++) {
+                        dst[j * dstStride + i] = src[srcRow + j];
+                    }
+                }
             }
         }
 
-        return transposed;
+        return out;
     }
 
     public static MatrixDouble getIdentityMatrix(int width) {
-        double[][] data = new double[width][width];
+        MatrixDouble identity = new MatrixDouble(width, width);
         for (int i = 0; i < width; i++) {
-            data[i][i] = 1;
+            identity.data[i * identity.stride + i] = 1;
         }
-        return new MatrixDouble(data);
+        return identity;
     }
     public static MatrixDouble getIdentityMatrix(MatrixDouble m) {
         assert (m.rows == m.cols); // Make sure matrix m is a square matrix
@@ -363,7 +454,7 @@ public class MatrixDouble implements Serializable {
 
         for (int i = 0; i < width; i++) {
             for (int j = 0; j < height; j++) {
-                m.data[j][i] = width*j + i + 1;
+                m.data[j * m.stride + i] = width*j + i + 1;
             }
         }
 
@@ -379,17 +470,23 @@ public class MatrixDouble implements Serializable {
     */
 
     public static MatrixDouble elementWiseMultiply(MatrixDouble A, MatrixDouble B) {
+        return elementWiseMultiplyInto(A, B, new MatrixDouble(A.rows, A.cols));
+    }
+
+    public static MatrixDouble elementWiseMultiplyInto(MatrixDouble A, MatrixDouble B, MatrixDouble result) {
         if (A.rows != B.rows || A.cols != B.cols) {
             throw new IllegalArgumentException("Matrices must have the same dimensions for element-wise multiplication. (A:"+A.dims()+" != B:"+B.dims()+")");
         }
+        checkSameShape(A, result);
 
-        MatrixDouble result = new MatrixDouble(A.rows, A.cols);
+        double[] a = A.data, b = B.data, dst = result.data;
+        int n = A.size();
 
-        IntStream.range(0, A.rows).parallel().forEach(i -> {
-            for (int j = 0; j < A.cols; j++) {
-                result.data[i][j] = A.data[i][j] * B.data[i][j];
-            }
-        });
+        if (n <= PARALLELISM_THRESHOLD) {
+            KERNELS.multiply(a, b, dst, 0, n);
+        } else {
+            IntStream.range(0, A.rows).parallel().forEach(r -> KERNELS.multiply(a, b, dst, r * A.stride, A.cols));
+        }
 
         return result;
     }
@@ -399,19 +496,176 @@ public class MatrixDouble implements Serializable {
             System.out.println(B);
             throw new IllegalArgumentException("A's columns must match B's rows ("+A.cols+"!="+B.rows+") - A.dims="+A.dims()+", B.dims="+B.dims());
         }
+        return multiplyInto(A, B, new MatrixDouble(A.rows, B.cols));
+    }
+
+    /**
+     * Computes {@code C = A * B}, overwriting the contents of C.
+     */
+    public static MatrixDouble multiplyInto(MatrixDouble A, MatrixDouble B, MatrixDouble C) {
+        if (A.cols != B.rows) {
+            throw new IllegalArgumentException("A's columns must match B's rows ("+A.cols+"!="+B.rows+") - A.dims="+A.dims()+", B.dims="+B.dims());
+        }
+        if (C.rows != A.rows || C.cols != B.cols) {
+            throw new IllegalArgumentException("C must be [" + A.rows + " x " + B.cols + "], got " + C.dims());
+        }
+        if (C == A || C == B) {
+            throw new IllegalArgumentException("Destination of a matrix product cannot alias an operand.");
+        }
+
+        C.fill(0);
+        gemm(A.rows, B.cols, A.cols, A.data, A.stride, 1, B.data, B.stride, 1, C);
+
+        return C;
+    }
+
+    /**
+     * Computes {@code A^T * B} without materialising the transpose of A.
+     */
+    public static MatrixDouble multiplyTransA(MatrixDouble A, MatrixDouble B) {
+        return multiplyTransAInto(A, B, new MatrixDouble(A.cols, B.cols));
+    }
+
+    /**
+     * Computes {@code C = A^T * B}, overwriting the contents of C. A is read in its stored layout.
+     */
+    public static MatrixDouble multiplyTransAInto(MatrixDouble A, MatrixDouble B, MatrixDouble C) {
+        if (A.rows != B.rows) {
+            throw new IllegalArgumentException("A's rows must match B's rows ("+A.rows+"!="+B.rows+") - A.dims="+A.dims()+", B.dims="+B.dims());
+        }
+        checkProductDestination(A, B, C, A.cols, B.cols);
+
+        C.fill(0);
+        gemm(A.cols, B.cols, A.rows, A.data, 1, A.stride, B.data, B.stride, 1, C);
+
+        return C;
+    }
+
+    /**
+     * Computes {@code A * B^T} without materialising the transpose of B.
+     */
+    public static MatrixDouble multiplyTransB(MatrixDouble A, MatrixDouble B) {
+        return multiplyTransBInto(A, B, new MatrixDouble(A.rows, B.rows));
+    }
+
+    /**
+     * Computes {@code C = A * B^T}, overwriting the contents of C. B is read in its stored layout.
+     */
+    public static MatrixDouble multiplyTransBInto(MatrixDouble A, MatrixDouble B, MatrixDouble C) {
+        if (A.cols != B.cols) {
+            throw new IllegalArgumentException("A's columns must match B's columns ("+A.cols+"!="+B.cols+") - A.dims="+A.dims()+", B.dims="+B.dims());
+        }
+        checkProductDestination(A, B, C, A.rows, B.rows);
+
+        C.fill(0);
+        gemm(A.rows, B.rows, A.cols, A.data, A.stride, 1, B.data, 1, B.stride, C);
 
-        AtomicReference<double[][]> C = new AtomicReference<>(new double[A.rows][B.cols]);
-        MatrixDouble BT = transpose(B);
+        return C;
+    }
+
+    /**
+     * Computes {@code A^T * B^T} without materialising either transpose.
+     */
+    public static MatrixDouble multiplyTransAB(MatrixDouble A, MatrixDouble B) {
+        return multiplyTransABInto(A, B, new MatrixDouble(A.cols, B.rows));
+    }
 
-        POOL.invoke(new MultiplyTask(A, BT, C, 0, A.rows, 0, B.cols, 0, A.cols));
+    /**
+     * Computes {@code C = A^T * B^T}, overwriting the contents of C. Both operands are read in their stored layout.
+     */
+    public static MatrixDouble multiplyTransABInto(MatrixDouble A, MatrixDouble B, MatrixDouble C) {
+        if (A.rows != B.cols) {
+            throw new IllegalArgumentException("A's rows must match B's columns ("+A.rows+"!="+B.cols+") - A.dims="+A.dims()+", B.dims="+B.dims());
+        }
+        checkProductDestination(A, B, C, A.cols, B.rows);
+
+        C.fill(0);
+        gemm(A.cols, B.rows, A.rows, A.data, 1, A.stride, B.data, 1, B.stride, C);
+
+        return C;
+    }
+
+    private static void checkProductDestination(MatrixDouble A, MatrixDouble B, MatrixDouble C, int rows, int cols) {
+        if (C.rows != rows || C.cols != cols) {
+            throw new IllegalArgumentException("C must be [" + rows + " x " + cols + "], got " + C.dims());
+        }
+        if (C == A || C == B) {
+            throw new IllegalArgumentException("Destination of a matrix product cannot alias an operand.");
+        }
+    }
+
+    /**
+     * Computes {@code phi(W * X + b)} where b is a column of biases broadcast across the columns of X.
+     */
+    public static MatrixDouble multiplyAddActivate(MatrixDouble W, MatrixDouble X, MatrixDouble b, ActivationFunction phi) {
+        return multiplyAddActivateInto(W, X, b, phi, new MatrixDouble(W.rows, X.cols));
+    }
+
+    /**
+     * Fused dense-layer kernel: writes {@code phi(W * X + b)} into out.
+     * <p>
+     * For a single input column (the inference case) each output is one contiguous dot product over a
+     * row of W, finished with its bias and activation while still in a register, so W is read exactly once.
+     * For a batch of N columns the output is seeded with the broadcast biases, the packed GEMM accumulates
+     * {@code W * X} on top of them, and the activation is applied in one sweep.
+     * </p>
+     */
+    public static MatrixDouble multiplyAddActivateInto(MatrixDouble W, MatrixDouble X, MatrixDouble b, ActivationFunction phi, MatrixDouble out) {
+        if (W.cols != X.rows) {
+            throw new IllegalArgumentException("A's columns must match B's rows ("+W.cols+"!="+X.rows+") - A.dims="+W.dims()+", B.dims="+X.dims());
+        }
+        if (b.rows != W.rows || b.cols != 1) {
+            throw new IllegalArgumentException("Biases must be a [" + W.rows + " x 1] column, got " + b.dims());
+        }
+        if (out.rows != W.rows || out.cols != X.cols) {
+            throw new IllegalArgumentException("Output must be [" + W.rows + " x " + X.cols + "], got " + out.dims());
+        }
+        if (out == X) {
+            throw new IllegalArgumentException("Destination of a matrix product cannot alias an operand.");
+        }
+
+        double[] o = out.data, bias = b.data;
+        int n = X.cols;
+
+        if (n == 1) {
+            if ((long) W.rows * W.cols <= GEMM_PARALLELISM_THRESHOLD) {
+                multiplyAddActivateRows(W, X, b, phi, out, 0, W.rows);
+            } else {
+                int blocks = (W.rows + MC - 1) / MC;
+                IntStream.range(0, blocks).parallel().forEach(block ->
+                        multiplyAddActivateRows(W, X, b, phi, out, block * MC, Math.min(W.rows, (block + 1) * MC)));
+            }
+            return out;
+        }
+
+        for (int r = 0; r < out.rows; r++) {
+            Arrays.fill(o, r * out.stride, r * out.stride + n, bias[r * b.stride]);
+        }
+        gemm(W.rows, n, W.cols, W.data, W.stride, 1, X.data, X.stride, 1, out);
+        if (!phi.isIdentity()) {
+            phi.activate(o, o, 0, out.size());
+        }
+        return out;
+    }
 
-        return new MatrixDouble(C.get());
+    private static void multiplyAddActivateRows(MatrixDouble W, MatrixDouble X, MatrixDouble b, ActivationFunction phi,
+                                                MatrixDouble out, int rowStart, int rowEnd) {
+        double[] w = W.data, x = X.data, bias = b.data, o = out.data;
+        int k = W.cols;
+        for (int r = rowStart; r < rowEnd; r++) {
+            o[r * out.stride] = KERNELS.dot(w, r * W.stride, x, 0, k) + bias[r * b.stride];
+        }
+        // A single column is contiguous, so the rows' outputs activate as one range
+        if (!phi.isIdentity()) {
+            phi.activate(o, o, rowStart, rowEnd - rowStart);
+        }
     }
 
     public void multiply(MatrixDouble B) {
         MatrixDouble res = multiply(this, B);
         this.rows = res.rows;
         this.cols = res.cols;
+        this.stride = res.stride;
         this.data = res.data;
     }
 
@@ -430,33 +684,85 @@ public class MatrixDouble implements Serializable {
     }
 
     public MatrixDouble toRowMatrix() {
-        MatrixDouble result = new MatrixDouble(1, rows*cols);
+        return new MatrixDouble(1, size(), Arrays.copyOf(data, size()));
+    }
+
+    public MatrixDouble toColumnMatrix() {
+        return new MatrixDouble(size(), 1, Arrays.copyOf(data, size()));
+    }
+
+    /**
+     * Returns column c as a new [rows x 1] matrix.
+     */
+    public MatrixDouble getColumn(int c) {
+        if (c < 0 || c >= cols) {
+            throw new IndexOutOfBoundsException(String.format("Column %d out of range for a [%d x %d] matrix.", c, rows, cols));
+        }
+        MatrixDouble column = new MatrixDouble(rows, 1);
         for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                result.set(r*cols+c, 0, get(c, r));
-            }
+            column.data[r] = data[r * stride + c];
         }
-        return result;
+        return column;
     }
 
-    public MatrixDouble toColumnMatrix() {
-        MatrixDouble result = new MatrixDouble(rows*cols, 1);
+    /**
+     * Overwrites column c with the contents of a [rows x 1] matrix.
+     */
+    public void setColumn(int c, MatrixDouble column) {
+        if (c < 0 || c >= cols) {
+            throw new IndexOutOfBoundsException(String.format("Column %d out of range for a [%d x %d] matrix.", c, rows, cols));
+        }
+        if (column.rows != rows || column.cols != 1) {
+            throw new IllegalArgumentException("Column must be [" + rows + " x 1], got " + column.dims());
+        }
         for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                result.set(0, r*cols+c, get(c, r));
+            data[r * stride + c] = column.data[r];
+        }
+    }
+
+    /**
+     * Places matrices with the same number of rows side by side, e.g. to stack column
+     * vectors into a [features x batch] matrix.
+     */
+    public static MatrixDouble concatenateColumns(List<MatrixDouble> matrices) {
+        if (matrices.isEmpty()) {
+            throw new IllegalArgumentException("Cannot concatenate an empty list of matrices.");
+        }
+        int rows = matrices.getFirst().rows;
+        int cols = 0;
+        for (MatrixDouble matrix : matrices) {
+            if (matrix.rows != rows) {
+                throw new IllegalArgumentException("All matrices must have " + rows + " rows, got " + matrix.dims());
+            }
+            cols += matrix.cols;
+        }
+
+        MatrixDouble result = new MatrixDouble(rows, cols);
+        int offset = 0;
+        for (MatrixDouble matrix : matrices) {
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(matrix.data, r * matrix.stride, result.data, r * result.stride + offset, matrix.cols);
             }
+            offset += matrix.cols;
         }
         return result;
     }
 
-    public double getSum() {
-        double sum = 0;
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                sum += data[i][j];
-            }
+    /**
+     * Writes the sum of each row into the [rows x 1] matrix out, i.e. reduces a batch of columns to one.
+     */
+    public static MatrixDouble rowSumsInto(MatrixDouble matrix, MatrixDouble out) {
+        if (out.rows != matrix.rows || out.cols != 1) {
+            throw new IllegalArgumentException("Destination must be [" + matrix.rows + " x 1], got " + out.dims());
         }
-        return sum;
+        for (int r = 0; r < matrix.rows; r++) {
+            out.data[r * out.stride] = KERNELS.sum(matrix.data, r * matrix.stride, matrix.cols);
+        }
+        return out;
+    }
+
+    public double getSum() {
+        return KERNELS.sum(data, 0, size());
     }
 
     public double getMeanAverage() {
@@ -465,116 +771,217 @@ public class MatrixDouble implements Serializable {
 
     public double getVariance(double mean) {
         double sum = 0;
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                double diff = data[i][j] - mean;
-                sum += diff * diff;
-            }
+        for (int i = 0, n = size(); i < n; i++) {
+            double diff = data[i] - mean;
+            sum += diff * diff;
         }
         return sum / (rows * cols);
     }
 
-    private static class MultiplyTask extends RecursiveAction {
-        private final MatrixDouble A, BT;
-        private final AtomicReference<double[][]> C;
-        private final int rowStart, rowEnd, colStart, colEnd, depthStart, depthEnd;
+    /*
+    -----------------------------------------------------------------------------
 
-        MultiplyTask(MatrixDouble A, MatrixDouble BT, AtomicReference<double[][]> C,
-                     int rowStart, int rowEnd,
-                     int colStart, int colEnd,
-                     int depthStart, int depthEnd) {
-            this.A = A;
-            this.BT = BT;
+    GEMM KERNEL
+
+    Operands are described by (array, rowStride, colStride), so element (i, j) of an
+    operand lives at array[i * rowStride + j * colStride]. That lets a transposed
+    operand be read in place by swapping its strides.
+
+    -----------------------------------------------------------------------------
+     */
+
+    /**
+     * Accumulates {@code C += A * B} where A is m x k and B is k x n.
+     * <p>
+     * Work is split over the output only (row blocks x column blocks), so every task owns a
+     * disjoint region of C and no merging or locking is needed. Splitting stops once there are
+     * a few tasks per pool thread, since every extra block re-packs its share of A and B.
+     * Small products, or any product when the pool has a single thread, run on the calling thread.
+     * </p>
+     */
+    private static void gemm(int m, int n, int k,
+                             double[] a, int aRowStride, int aColStride,
+                             double[] b, int bRowStride, int bColStride,
+                             MatrixDouble C) {
+        long work = (long) m * n * k;
+        int parallelism = POOL.getParallelism();
+        long grain = Math.max(GEMM_PARALLELISM_THRESHOLD, work / ((long) parallelism * GEMM_TASKS_PER_THREAD));
+        GemmTask task = new GemmTask(m, n, k, a, aRowStride, aColStride, b, bRowStride, bColStride, C, 0, m, 0, n, grain);
+        if (work <= GEMM_PARALLELISM_THRESHOLD || parallelism <= 1) {
+            task.computeBlock();
+        } else {
+            POOL.invoke(task);
+        }
+    }
+
+    private static class GemmTask extends RecursiveAction {
+        private final int m, n, k;
+        private final double[] a, b;
+        private final int aRowStride, aColStride, bRowStride, bColStride;
+        private final MatrixDouble C;
+        private final int rowStart, rowEnd, colStart, colEnd;
+        private final long grain;
+
+        GemmTask(int m, int n, int k,
+                 double[] a, int aRowStride, int aColStride,
+                 double[] b, int bRowStride, int bColStride,
+                 MatrixDouble C,
+                 int rowStart, int rowEnd, int colStart, int colEnd, long grain) {
+            this.m = m;
+            this.n = n;
+            this.k = k;
+            this.a = a;
+            this.aRowStride = aRowStride;
+            this.aColStride = aColStride;
+            this.b = b;
+            this.bRowStride = bRowStride;
+            this.bColStride = bColStride;
             this.C = C;
             this.rowStart = rowStart;
             this.rowEnd = rowEnd;
             this.colStart = colStart;
             this.colEnd = colEnd;
-            this.depthStart = depthStart;
-            this.depthEnd = depthEnd;
+            this.grain = grain;
+        }
+
+        private GemmTask subTask(int rowStart, int rowEnd, int colStart, int colEnd) {
+            return new GemmTask(m, n, k, a, aRowStride, aColStride, b, bRowStride, bColStride, C, rowStart, rowEnd, colStart, colEnd, grain);
         }
 
         @Override
         protected void compute() {
             int rowSize = rowEnd - rowStart;
             int colSize = colEnd - colStart;
-            int depthSize = depthEnd - depthStart;
 
-            if (rowSize * colSize * depthSize <= PARALLELISM_THRESHOLD) {
-                multiplySequential();
+            if ((long) rowSize * colSize * k <= grain || (rowSize <= MR && colSize <= NR)) {
+                computeBlock();
                 return;
             }
 
-            if (rowSize >= colSize && rowSize >= depthSize) {
-                int mid = rowStart + rowSize / 2;
-                invokeAll(
-                        new MultiplyTask(A, BT, C, rowStart, mid, colStart, colEnd, depthStart, depthEnd),
-                        new MultiplyTask(A, BT, C, mid, rowEnd, colStart, colEnd, depthStart, depthEnd)
-                );
-            } else if (colSize >= depthSize) {
-                int mid = colStart + colSize / 2;
-                invokeAll(
-                        new MultiplyTask(A, BT, C, rowStart, rowEnd, colStart, mid, depthStart, depthEnd),
-                        new MultiplyTask(A, BT, C, rowStart, rowEnd, mid, colEnd, depthStart, depthEnd)
-                );
+            // Split the larger output dimension, keeping halves aligned to the micro-tile
+            if (rowSize >= colSize && rowSize > MR) {
+                int mid = rowStart + Math.max(MR, (rowSize / 2) / MR * MR);
+                invokeAll(subTask(rowStart, mid, colStart, colEnd), subTask(mid, rowEnd, colStart, colEnd));
             } else {
-                int mid = depthStart + depthSize / 2;
-                invokeAll(
-                        new MultiplyTask(A, BT, C, rowStart, rowEnd, colStart, colEnd, depthStart, mid),
-                        new MultiplyTask(A, BT, C, rowStart, rowEnd, colStart, colEnd, mid, depthEnd)
-                );
+                int mid = colStart + Math.max(NR, (colSize / 2) / NR * NR);
+                invokeAll(subTask(rowStart, rowEnd, colStart, mid), subTask(rowStart, rowEnd, mid, colEnd));
             }
         }
 
-        private void multiplySequential() {
-            double[][] localC = new double[rowEnd - rowStart][colEnd - colStart];
-            for (int i0 = rowStart; i0 < rowEnd; i0 += TILE_SIZE) {
-                for (int j0 = colStart; j0 < colEnd; j0 += TILE_SIZE) {
-                    for (int k0 = depthStart; k0 < depthEnd; k0 += TILE_SIZE) {
-                        multiplyTile(i0, j0, k0, localC);
+        void computeBlock() {
+            if (colEnd - colStart == 1) {
+                gemvBlock();
+            } else {
+                double[][] buffers = PACK_BUFFERS.get();
+                double[] packedA = buffers[0], packedB = buffers[1];
+
+                for (int jc = colStart; jc < colEnd; jc += NC) {
+                    int nc = Math.min(NC, colEnd - jc);
+                    for (int pc = 0; pc < k; pc += KC) {
+                        int kc = Math.min(KC, k - pc);
+                        packB(packedB, pc, kc, jc, nc);
+                        for (int ic = rowStart; ic < rowEnd; ic += MC) {
+                            int mc = Math.min(MC, rowEnd - ic);
+                            packA(packedA, ic, mc, pc, kc);
+                            multiplyPanels(packedA, packedB, ic, mc, jc, nc, kc);
+                        }
                     }
                 }
             }
-            mergeResult(localC);
+            checkFinite();
+        }
+
+        /**
+         * Packs a KC x NC panel of B into NR-wide column strips, zero padding the last strip.
+         */
+        private void packB(double[] packed, int pc, int kc, int jc, int nc) {
+            int idx = 0;
+            for (int j0 = 0; j0 < nc; j0 += NR) {
+                int nr = Math.min(NR, nc - j0);
+                for (int p = 0; p < kc; p++) {
+                    int src = (pc + p) * bRowStride + (jc + j0) * bColStride;
+                    for (int j = 0; j < nr; j++) {
+                        packed[idx + j] = b[src + j * bColStride];
+                    }
+                    for (int j = nr; j < NR; j++) {
+                        packed[idx + j] = 0;
+                    }
+                    idx += NR;
+                }
+            }
         }
 
-        private void multiplyTile(int i0, int j0, int k0, double[][] localC) {
-            int iMax = Math.min(i0 + TILE_SIZE, rowEnd);
-            int jMax = Math.min(j0 + TILE_SIZE, colEnd);
-            int kMax = Math.min(k0 + TILE_SIZE, depthEnd);
+        /**
+         * Packs an MC x KC panel of A into MR-tall row strips, zero padding the last strip.
+         */
+        private void packA(double[] packed, int ic, int mc, int pc, int kc) {
+            int idx = 0;
+            for (int i0 = 0; i0 < mc; i0 += MR) {
+                int mr = Math.min(MR, mc - i0);
+                for (int p = 0; p < kc; p++) {
+                    int src = (ic + i0) * aRowStride + (pc + p) * aColStride;
+                    for (int i = 0; i < mr; i++) {
+                        packed[idx + i] = a[src + i * aRowStride];
+                    }
+                    for (int i = mr; i < MR; i++) {
+                        packed[idx + i] = 0;
+                    }
+                    idx += MR;
+                }
+            }
+        }
 
-            for (int i = i0; i < iMax; i++) {
-                for (int j = j0; j < jMax; j += UNROLL_FACTOR) {
-                    double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        private void multiplyPanels(double[] packedA, double[] packedB, int ic, int mc, int jc, int nc, int kc) {
+            for (int j0 = 0; j0 < nc; j0 += NR) {
+                int bOffset = (j0 / NR) * kc * NR;
+                for (int i0 = 0; i0 < mc; i0 += MR) {
+                    int aOffset = (i0 / MR) * kc * MR;
+                    KERNELS.gemmMicroKernel(packedA, aOffset, packedB, bOffset, kc,
+                            C.data, (ic + i0) * C.stride + jc + j0, C.stride,
+                            Math.min(MR, mc - i0), Math.min(NR, nc - j0));
+                }
+            }
+        }
 
-                    for (int k = k0; k < kMax; k++) {
-                        double aik = A.data[i][k];
-                        double product = aik * BT.data[j][k];
-                        sum0 += product;
+        /**
+         * Matrix-vector case (single output column): packing would waste NR - 1 lanes, so stream A directly.
+         */
+        private void gemvBlock() {
+            double[] c = C.data;
+            int cStride = C.stride;
+            int bStart = colStart * bColStride;
 
-                        if (j + 1 < jMax) sum1 += aik * BT.data[j + 1][k];
-                        if (j + 2 < jMax) sum2 += aik * BT.data[j + 2][k];
-                        if (j + 3 < jMax) sum3 += aik * BT.data[j + 3][k];
+            if (aColStride == 1 && bRowStride == 1) {
+                // Rows of A and the column of B are contiguous: one dot product per output row
+                for (int i = rowStart; i < rowEnd; i++) {
+                    c[i * cStride + colStart] += KERNELS.dot(a, i * aRowStride, b, bStart, k);
+                }
+            } else if (aRowStride == 1 && cStride == 1) {
+                // Columns of A are contiguous (A is read transposed): accumulate scaled columns
+                for (int p = 0; p < k; p++) {
+                    KERNELS.axpy(b[bStart + p * bRowStride], a, p * aColStride + rowStart, c, rowStart + colStart, rowEnd - rowStart);
+                }
+            } else {
+                for (int p = 0; p < k; p++) {
+                    double bp = b[bStart + p * bRowStride];
+                    int aCol = p * aColStride;
+                    for (int i = rowStart; i < rowEnd; i++) {
+                        c[i * cStride + colStart] += a[aCol + i * aRowStride] * bp;
                     }
-
-                    localC[i - rowStart][j - colStart] += sum0;
-                    if (j + 1 < jMax) localC[i - rowStart][j + 1 - colStart] += sum1;
-                    if (j + 2 < jMax) localC[i - rowStart][j + 2 - colStart] += sum2;
-                    if (j + 3 < jMax) localC[i - rowStart][j + 3 - colStart] += sum3;
                 }
             }
         }
 
-        private void mergeResult(double[][] localC) {
-            double[][] globalC = C.get();
-            synchronized (C) {
-                for (int i = 0; i < localC.length; i++) {
-                    for (int j = 0; j < localC[0].length; j++) {
-                        if (Double.isNaN(localC[i][j]) || Double.isInfinite(localC[i][j])) {
-                            throw new IllegalArgumentException("NaN or Infinity encountered in matrix multiplication");
-
-                        }
-                        globalC[i + rowStart][j + colStart] += localC[i][j];
+        /**
+         * Rejects results that overflowed or picked up NaNs, checking only this task's own block.
+         */
+        private void checkFinite() {
+            double[] c = C.data;
+            int cStride = C.stride;
+            for (int i = rowStart; i < rowEnd; i++) {
+                for (int j = i * cStride + colStart, end = i * cStride + colEnd; j < end; j++) {
+                    if (!Double.isFinite(c[j])) {
+                        throw new IllegalArgumentException("NaN or Infinity encountered in matrix multiplication");
                     }
                 }
             }
@@ -8,6 +8,7 @@ import java.util.List;
 public abstract class NN {
     List<Layer> layers;
     double learningRate; // alpha
+    boolean training = true;
 
     public abstract Object getOutput(Object input);
     public abstract void saveNN(String filename);
@@ -15,14 +16,16 @@ public abstract class NN {
 
     private MatrixDouble applyDerivative(MatrixDouble input, ActivationFunction activationFunction) {
         MatrixDouble res = new MatrixDouble(input.rows, input.cols);
-        for (int r = 0; r < input.rows; r++) {
-            for (int c = 0; c < input.cols; c++) {
-                res.set(c, r, activationFunction.derivative(input.get(c, r)));
-            }
-        }
+        activationFunction.derivative(input.getData(), res.getData(), 0, input.rows * input.cols);
         return res;
     }
 
+    /**
+     * Runs the input through every layer. The input may be a single sample or a whole batch
+     * (see {@link Layer}), in which case every entry of the result holds the batch's activations.
+     *
+     * @return the input followed by the output of each layer
+     */
     protected List<Object> forwardPass(Object input) {
         List<Object> layerOutputs = new ArrayList<>();
         layerOutputs.add(input);
@@ -49,4 +52,18 @@ public abstract class NN {
     public List<Layer> getLayers() {
         return layers;
     }
+
+    /**
+     * Switches every layer between training and inference behaviour (see {@link Layer#setTraining(boolean)}).
+     */
+    public void setTraining(boolean training) {
+        this.training = training;
+        for (Layer layer : layers) {
+            layer.setTraining(training);
+        }
+    }
+
+    public boolean isTraining() {
+        return training;
+    }
 }
@@ -0,0 +1,71 @@
+package Structures;
+
+/**
+ * One flat parameter tensor of a layer, such as its weights or biases, together with the gradient left by the last
+ * backward pass and the optimizer's first and second moment estimates. All four arrays hold the same elements in
+ * the same order, so optimizers, gradient clipping and target network updates handle every layer type alike, with
+ * one linear sweep per block.
+ * <p>
+ * Non-trainable blocks, such as batch normalization's running statistics, are state that target network updates
+ * blend like any parameter but that optimizers and gradient clipping skip; they have no gradients or moments.
+ * </p>
+ */
+public final class ParameterBlock {
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+
+    public final double[] values, gradients, m, v; // gradients and moments are null for non-trainable blocks
+    public final int length;
+    public final boolean decayed; // whether the optimizer applies weight decay to these values
+    public final boolean trainable;
+
+    ParameterBlock(double[] values, double[] gradients, double[] m, double[] v, boolean decayed) {
+        if (gradients.length != values.length || m.length != values.length || v.length != values.length) {
+            throw new IllegalArgumentException("Values, gradients and moments of a parameter block must have the same length.");
+        }
+        this.values = values;
+        this.gradients = gradients;
+        this.m = m;
+        this.v = v;
+        this.length = values.length;
+        this.decayed = decayed;
+        this.trainable = true;
+    }
+
+    private ParameterBlock(double[] values) {
+        this.values = values;
+        this.gradients = null;
+        this.m = null;
+        this.v = null;
+        this.length = values.length;
+        this.decayed = false;
+        this.trainable = false;
+    }
+
+    /**
+     * A non-trainable block over values, which only target network updates touch.
+     */
+    static ParameterBlock nonTrainable(double[] values) {
+        return new ParameterBlock(values);
+    }
+
+    public double gradientSumOfSquares() {
+        return KERNELS.sumOfSquares(gradients, 0, length);
+    }
+
+    public void scaleGradients(double factor) {
+        KERNELS.scale(gradients, factor, gradients, 0, length);
+    }
+
+    /**
+     * Polyak averaging into this block from two others: {@code values = tau * source.values + (1 - tau) * base.values},
+     * which may be this block itself, or a spare copy taking the next target while base is still in use. Gradients
+     * and moments are left alone. Long blocks are split into chunks blended in parallel.
+     */
+    public void blend(ParameterBlock source, ParameterBlock base, double tau) {
+        if (source.length != length || base.length != length) {
+            throw new IllegalArgumentException("Cannot blend blocks of " + source.length + " and " + base.length + " values into one of " + length);
+        }
+        double[] from = source.values, previous = base.values;
+        Kernels.forEachChunk(0, length, (start, count) -> KERNELS.axpby(tau, from, 1 - tau, previous, values, start, count));
+    }
+}
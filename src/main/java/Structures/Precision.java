@@ -0,0 +1,15 @@
+package Structures;
+
+/**
+ * Numeric precision used for a layer's forward pass and for states held in a replay buffer.
+ * <p>
+ * Parameters and optimizer state are always kept in double precision; {@link #FLOAT}
+ * only changes how they are read on the bandwidth-bound paths. Those are the fully connected
+ * forward pass and replay storage: convolutions and batch normalization always run in double
+ * (see {@link Layer#hasFloatPath()}).
+ * </p>
+ */
+public enum Precision {
+    DOUBLE,
+    FLOAT
+}
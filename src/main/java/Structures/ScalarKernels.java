@@ -0,0 +1,166 @@
+package Structures;
+
+/**
+ * Plain Java implementation of {@link Kernels}, used when the Vector API is unavailable.
+ */
+class ScalarKernels extends Kernels {
+    private static final int NR = 4;
+
+    @Override
+    int gemmTileWidth() {
+        return NR;
+    }
+
+    @Override
+    void gemmMicroKernel(double[] packedA, int aOffset, double[] packedB, int bOffset, int kc,
+                         double[] c, int cOffset, int cStride, int mr, int nr) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+
+        for (int p = 0; p < kc; p++) {
+            int ai = aOffset + p * 4, bi = bOffset + p * NR;
+            double a0 = packedA[ai], a1 = packedA[ai + 1], a2 = packedA[ai + 2], a3 = packedA[ai + 3];
+            double b0 = packedB[bi], b1 = packedB[bi + 1], b2 = packedB[bi + 2], b3 = packedB[bi + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+        }
+
+        storeRow(c, cOffset, nr, c00, c01, c02, c03);
+        if (mr > 1) storeRow(c, cOffset + cStride, nr, c10, c11, c12, c13);
+        if (mr > 2) storeRow(c, cOffset + 2 * cStride, nr, c20, c21, c22, c23);
+        if (mr > 3) storeRow(c, cOffset + 3 * cStride, nr, c30, c31, c32, c33);
+    }
+
+    private static void storeRow(double[] c, int idx, int nr, double v0, double v1, double v2, double v3) {
+        c[idx] += v0;
+        if (nr > 1) c[idx + 1] += v1;
+        if (nr > 2) c[idx + 2] += v2;
+        if (nr > 3) c[idx + 3] += v3;
+    }
+
+    @Override
+    void add(double[] a, double[] b, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    void subtract(double[] a, double[] b, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = a[i] - b[i];
+        }
+    }
+
+    @Override
+    void multiply(double[] a, double[] b, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = a[i] * b[i];
+        }
+    }
+
+    @Override
+    void divide(double[] a, double[] b, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (b[i] == 0) {
+                throw new IllegalArgumentException("Division by zero encountered in matrix.");
+            }
+            out[i] = a[i] / b[i];
+        }
+    }
+
+    @Override
+    void scale(double[] a, double scalar, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = a[i] * scalar;
+        }
+    }
+
+    @Override
+    void sqrt(double[] a, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = Math.sqrt(a[i]);
+        }
+    }
+
+    @Override
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    void axpby(double alpha, double[] x, double beta, double[] y, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = alpha * x[i] + beta * y[i];
+        }
+    }
+
+    @Override
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+            sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    @Override
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+            sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    @Override
+    double sum(double[] a, int offset, int length) {
+        double sum = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            sum += a[i];
+        }
+        return sum;
+    }
+
+    @Override
+    double sumOfSquares(double[] a, int offset, int length) {
+        double sum = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            sum += a[i] * a[i];
+        }
+        return sum;
+    }
+
+    @Override
+    void adam(double[] param, double[] gradient, double[] m, double[] v, int offset, int length,
+              double beta1, double beta2, double stepSize, double secondMomentScale, double epsilon, double decay) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            double g = gradient[i];
+            double mi = beta1 * m[i] + (1 - beta1) * g;
+            double vi = beta2 * v[i] + (1 - beta2) * g * g;
+            m[i] = mi;
+            v[i] = vi;
+            param[i] = decay * param[i] - stepSize * mi / (Math.sqrt(vi * secondMomentScale) + epsilon);
+        }
+    }
+}
@@ -1,29 +1,76 @@
 package Structures;
 
+import java.util.Arrays;
+
+/**
+ * A [depth x height x width] block of values stored in one flat row-major array: element (d, h, w)
+ * lives at {@code (d * height + h) * width + w}. The array may be longer than {@link #size()}, in which
+ * case the tensor is a view of its first {@code size()} elements.
+ * <p>
+ * The flat layout is the same as a {@link MatrixDouble}'s, so {@link #asMatrix()} and
+ * {@link MatrixDouble#asTensor(int, int, int)} reshape between the two without copying; both
+ * views then share the same memory.
+ * </p>
+ */
 public class Tensor {
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+
     private final int depth, height, width;
-    double[][][] data;
+    private final double[] data;
 
     public Tensor(int depth, int height, int width) {
-        this.data = new double[depth][height][width];
+        this(new double[depth * height * width], depth, height, width);
+    }
+
+    /**
+     * Wraps the first {@code depth * height * width} elements of data as a tensor of the given shape, without copying.
+     */
+    public Tensor(double[] data, int depth, int height, int width) {
+        if (depth <= 0 || height <= 0 || width <= 0) {
+            throw new IllegalArgumentException("Tensor dimensions must be positive.");
+        }
+        if (data.length < depth * height * width) {
+            throw new IllegalArgumentException("Data is too short for the specified dimensions");
+        }
+        this.data = data;
         this.depth = depth;
         this.height = height;
         this.width = width;
     }
 
     public Tensor(double[][][] data) {
-        this.data = data;
-        this.depth = data.length;
-        this.height = data[0].length;
-        this.width = data[0][0].length;
+        this(data.length, data[0].length, data[0][0].length);
+        for (int d = 0; d < depth; d++) {
+            for (int h = 0; h < height; h++) {
+                System.arraycopy(data[d][h], 0, this.data, index(d, h, 0), width);
+            }
+        }
+    }
+
+    /**
+     * Allocates a batch of count zeroed tensors of the same shape.
+     */
+    static Tensor[] newBatch(int count, int depth, int height, int width) {
+        Tensor[] batch = new Tensor[count];
+        for (int b = 0; b < count; b++) {
+            batch[b] = new Tensor(depth, height, width);
+        }
+        return batch;
     }
 
     // Accessors and Mutators
     public double get(int d, int h, int w) {
-        return data[d][h][w];
+        return data[index(d, h, w)];
     }
     public void set(int d, int h, int w, double value) {
-        data[d][h][w]=value;
+        data[index(d, h, w)] = value;
+    }
+
+    /**
+     * Position of element (d, h, w) in {@link #getData()}.
+     */
+    public final int index(int d, int h, int w) {
+        return (d * height + h) * width + w;
     }
 
     public int getDepth() {
@@ -38,33 +85,36 @@ public class Tensor {
         return width;
     }
 
-    public double[][][] getData() {
+    public int size() {
+        return depth * height * width;
+    }
+
+    /**
+     * Returns the backing flat array (see {@link #index(int, int, int)}), of at least {@link #size()} elements.
+     */
+    public double[] getData() {
         return data;
     }
 
-    public void setData(double[][][] data) {
-        this.data = data;
+    /**
+     * A [size x 1] column view of this tensor's memory, in (d, h, w) order.
+     */
+    public MatrixDouble asMatrix() {
+        return MatrixDouble.wrap(data, size(), 1);
+    }
+
+    /**
+     * A view of the same memory with a different shape holding the same number of elements.
+     */
+    public Tensor reshape(int depth, int height, int width) {
+        return new Tensor(data, depth, height, width);
     }
 
     public Tensor copy() {
-        double[][][] copiedData = new double[depth][height][width];
-        for (int d = 0; d < depth; d++) {
-            for (int h = 0; h < height; h++) {
-                System.arraycopy(data[d][h], 0, copiedData[d][h], 0, width);
-            }
-        }
-        return new Tensor(copiedData);
+        return new Tensor(Arrays.copyOf(data, size()), depth, height, width);
     }
 
     public double getSum() {
-        double sum = 0;
-        for (int d = 0; d < depth; d++) {
-            for (int h = 0; h < height; h++) {
-                for (int w = 0; w < width; w++) {
-                    sum += data[d][h][w];
-                }
-            }
-        }
-        return sum;
+        return KERNELS.sum(data, 0, size());
     }
 }
@@ -0,0 +1,252 @@
+package Structures;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Kernels} implemented with the incubating Java Vector API.
+ * <p>
+ * Uses the platform's preferred species, so each loop iteration covers 4 doubles on AVX2 and
+ * 8 on AVX-512. Only instantiated reflectively by {@link Kernels} once the module is known to be present.
+ * </p>
+ */
+class VectorKernels extends Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    int gemmTileWidth() {
+        return LANES;
+    }
+
+    @Override
+    void gemmMicroKernel(double[] packedA, int aOffset, double[] packedB, int bOffset, int kc,
+                         double[] c, int cOffset, int cStride, int mr, int nr) {
+        DoubleVector c0 = DoubleVector.zero(SPECIES);
+        DoubleVector c1 = c0, c2 = c0, c3 = c0;
+
+        for (int p = 0; p < kc; p++) {
+            int ai = aOffset + p * 4;
+            DoubleVector b = DoubleVector.fromArray(SPECIES, packedB, bOffset + p * LANES);
+            c0 = DoubleVector.broadcast(SPECIES, packedA[ai]).fma(b, c0);
+            c1 = DoubleVector.broadcast(SPECIES, packedA[ai + 1]).fma(b, c1);
+            c2 = DoubleVector.broadcast(SPECIES, packedA[ai + 2]).fma(b, c2);
+            c3 = DoubleVector.broadcast(SPECIES, packedA[ai + 3]).fma(b, c3);
+        }
+
+        if (nr == LANES) {
+            storeRow(c, cOffset, c0);
+            if (mr > 1) storeRow(c, cOffset + cStride, c1);
+            if (mr > 2) storeRow(c, cOffset + 2 * cStride, c2);
+            if (mr > 3) storeRow(c, cOffset + 3 * cStride, c3);
+        } else {
+            VectorMask<Double> mask = SPECIES.indexInRange(0, nr);
+            storeRow(c, cOffset, c0, mask);
+            if (mr > 1) storeRow(c, cOffset + cStride, c1, mask);
+            if (mr > 2) storeRow(c, cOffset + 2 * cStride, c2, mask);
+            if (mr > 3) storeRow(c, cOffset + 3 * cStride, c3, mask);
+        }
+    }
+
+    private static void storeRow(double[] c, int idx, DoubleVector row) {
+        DoubleVector.fromArray(SPECIES, c, idx).add(row).intoArray(c, idx);
+    }
+
+    private static void storeRow(double[] c, int idx, DoubleVector row, VectorMask<Double> mask) {
+        DoubleVector.fromArray(SPECIES, c, idx, mask).add(row).intoArray(c, idx, mask);
+    }
+
+    @Override
+    void add(double[] a, double[] b, double[] out, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+        }
+        for (; i < end; i++) {
+            out[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    void subtract(double[] a, double[] b, double[] out, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+        }
+        for (; i < end; i++) {
+            out[i] = a[i] - b[i];
+        }
+    }
+
+    @Override
+    void multiply(double[] a, double[] b, double[] out, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+        }
+        for (; i < end; i++) {
+            out[i] = a[i] * b[i];
+        }
+    }
+
+    @Override
+    void divide(double[] a, double[] b, double[] out, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector divisor = DoubleVector.fromArray(SPECIES, b, i);
+            if (divisor.eq(0).anyTrue()) {
+                throw new IllegalArgumentException("Division by zero encountered in matrix.");
+            }
+            DoubleVector.fromArray(SPECIES, a, i).div(divisor).intoArray(out, i);
+        }
+        for (; i < end; i++) {
+            if (b[i] == 0) {
+                throw new IllegalArgumentException("Division by zero encountered in matrix.");
+            }
+            out[i] = a[i] / b[i];
+        }
+    }
+
+    @Override
+    void scale(double[] a, double scalar, double[] out, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).mul(scalar).intoArray(out, i);
+        }
+        for (; i < end; i++) {
+            out[i] = a[i] * scalar;
+        }
+    }
+
+    @Override
+    void sqrt(double[] a, double[] out, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).sqrt().intoArray(out, i);
+        }
+        for (; i < end; i++) {
+            out[i] = Math.sqrt(a[i]);
+        }
+    }
+
+    @Override
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (int upper = SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector.fromArray(SPECIES, x, xOffset + i)
+                    .fma(scale, DoubleVector.fromArray(SPECIES, y, yOffset + i))
+                    .intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    void axpby(double alpha, double[] x, double beta, double[] y, double[] out, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector.fromArray(SPECIES, x, i).mul(alpha)
+                    .add(DoubleVector.fromArray(SPECIES, y, i).mul(beta))
+                    .intoArray(out, i);
+        }
+        for (; i < end; i++) {
+            out[i] = alpha * x[i] + beta * y[i];
+        }
+    }
+
+    @Override
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int upper = SPECIES.loopBound(length); i < upper; i += LANES) {
+            acc = DoubleVector.fromArray(SPECIES, a, aOffset + i).fma(DoubleVector.fromArray(SPECIES, b, bOffset + i), acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+        for (int upper = FLOAT_SPECIES.loopBound(length); i < upper; i += FLOAT_SPECIES.length()) {
+            acc = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i).fma(FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i), acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    double sum(double[] a, int offset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            acc = acc.add(DoubleVector.fromArray(SPECIES, a, i));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < end; i++) {
+            sum += a[i];
+        }
+        return sum;
+    }
+
+    @Override
+    double sumOfSquares(double[] a, int offset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, a, i);
+            acc = v.fma(v, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < end; i++) {
+            sum += a[i] * a[i];
+        }
+        return sum;
+    }
+
+    @Override
+    void adam(double[] param, double[] gradient, double[] m, double[] v, int offset, int length,
+              double beta1, double beta2, double stepSize, double secondMomentScale, double epsilon, double decay) {
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector g = DoubleVector.fromArray(SPECIES, gradient, i);
+            DoubleVector mi = DoubleVector.fromArray(SPECIES, m, i).mul(beta1).add(g.mul(1 - beta1));
+            DoubleVector vi = DoubleVector.fromArray(SPECIES, v, i).mul(beta2).add(g.mul(g).mul(1 - beta2));
+            mi.intoArray(m, i);
+            vi.intoArray(v, i);
+            DoubleVector step = mi.mul(stepSize).div(vi.mul(secondMomentScale).sqrt().add(epsilon));
+            DoubleVector.fromArray(SPECIES, param, i).mul(decay).sub(step).intoArray(param, i);
+        }
+        for (; i < end; i++) {
+            double g = gradient[i];
+            double mi = beta1 * m[i] + (1 - beta1) * g;
+            double vi = beta2 * v[i] + (1 - beta2) * g * g;
+            m[i] = mi;
+            v[i] = vi;
+            param[i] = decay * param[i] - stepSize * mi / (Math.sqrt(vi * secondMomentScale) + epsilon);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package Structures;
+
+/**
+ * Tile transforms for Winograd minimal filtering F(2x2, 3x3).
+ * <p>
+ * A 2x2 block of a 3x3, stride 1 convolution is computed from a 4x4 input tile as
+ * {@code Y = A^T [(G g G^T) . (B^T d B)] A}, which needs 16 multiplies per filter and channel
+ * instead of 36. The 16 positions of the element-wise product are independent, so over many
+ * tiles, filters and channels they become 16 matrix products.
+ * </p>
+ * The backward transforms are the transposes of the forward ones, so gradients are exact.
+ * Tiles are flat row-major arrays; each transform applies its 1D transform down the columns, then along the rows.
+ */
+final class Winograd {
+    static final int OUTPUT_TILE = 2;
+    static final int INPUT_TILE = 4;
+    static final int POSITIONS = INPUT_TILE * INPUT_TILE;
+
+    private Winograd() {}
+
+    /** u = G g G^T: 3x3 filter to 4x4. */
+    static void filterTransform(double[] g, double[] u) {
+        double[] t = new double[12]; // G g, 4x3
+        for (int c = 0; c < 3; c++) {
+            double g0 = g[c], g1 = g[3 + c], g2 = g[6 + c];
+            t[c] = g0;
+            t[3 + c] = 0.5 * (g0 + g1 + g2);
+            t[6 + c] = 0.5 * (g0 - g1 + g2);
+            t[9 + c] = g2;
+        }
+        for (int r = 0; r < 4; r++) {
+            double t0 = t[r * 3], t1 = t[r * 3 + 1], t2 = t[r * 3 + 2];
+            u[r * 4] = t0;
+            u[r * 4 + 1] = 0.5 * (t0 + t1 + t2);
+            u[r * 4 + 2] = 0.5 * (t0 - t1 + t2);
+            u[r * 4 + 3] = t2;
+        }
+    }
+
+    /** dg = G^T du G: gradient of {@link #filterTransform}, 4x4 to 3x3. */
+    static void filterTransformBackward(double[] du, double[] dg) {
+        double[] t = new double[12]; // G^T du, 3x4
+        for (int c = 0; c < 4; c++) {
+            double u0 = du[c], u1 = du[4 + c], u2 = du[8 + c], u3 = du[12 + c];
+            t[c] = u0 + 0.5 * (u1 + u2);
+            t[4 + c] = 0.5 * (u1 - u2);
+            t[8 + c] = u3 + 0.5 * (u1 + u2);
+        }
+        for (int r = 0; r < 3; r++) {
+            double t0 = t[r * 4], t1 = t[r * 4 + 1], t2 = t[r * 4 + 2], t3 = t[r * 4 + 3];
+            dg[r * 3] = t0 + 0.5 * (t1 + t2);
+            dg[r * 3 + 1] = 0.5 * (t1 - t2);
+            dg[r * 3 + 2] = t3 + 0.5 * (t1 + t2);
+        }
+    }
+
+    /** v = B^T d B: 4x4 input tile to 4x4. */
+    static void inputTransform(double[] d, double[] v) {
+        for (int c = 0; c < 4; c++) { // B^T d, kept in v
+            double d0 = d[c], d1 = d[4 + c], d2 = d[8 + c], d3 = d[12 + c];
+            v[c] = d0 - d2;
+            v[4 + c] = d1 + d2;
+            v[8 + c] = d2 - d1;
+            v[12 + c] = d1 - d3;
+        }
+        for (int r = 0; r < 4; r++) {
+            double t0 = v[r * 4], t1 = v[r * 4 + 1], t2 = v[r * 4 + 2], t3 = v[r * 4 + 3];
+            v[r * 4] = t0 - t2;
+            v[r * 4 + 1] = t1 + t2;
+            v[r * 4 + 2] = t2 - t1;
+            v[r * 4 + 3] = t1 - t3;
+        }
+    }
+
+    /** dd = B dv B^T: gradient of {@link #inputTransform}. */
+    static void inputTransformBackward(double[] dv, double[] dd) {
+        for (int c = 0; c < 4; c++) { // B dv, kept in dd
+            double v0 = dv[c], v1 = dv[4 + c], v2 = dv[8 + c], v3 = dv[12 + c];
+            dd[c] = v0;
+            dd[4 + c] = v1 - v2 + v3;
+            dd[8 + c] = v1 + v2 - v0;
+            dd[12 + c] = -v3;
+        }
+        for (int r = 0; r < 4; r++) {
+            double t0 = dd[r * 4], t1 = dd[r * 4 + 1], t2 = dd[r * 4 + 2], t3 = dd[r * 4 + 3];
+            dd[r * 4] = t0;
+            dd[r * 4 + 1] = t1 - t2 + t3;
+            dd[r * 4 + 2] = t1 + t2 - t0;
+            dd[r * 4 + 3] = -t3;
+        }
+    }
+
+    /** y = A^T m A: 4x4 product to the 2x2 output tile. */
+    static void outputTransform(double[] m, double[] y) {
+        // A^T m, 2x4
+        double t00 = m[0] + m[4] + m[8], t01 = m[1] + m[5] + m[9], t02 = m[2] + m[6] + m[10], t03 = m[3] + m[7] + m[11];
+        double t10 = m[4] - m[8] - m[12], t11 = m[5] - m[9] - m[13], t12 = m[6] - m[10] - m[14], t13 = m[7] - m[11] - m[15];
+        y[0] = t00 + t01 + t02;
+        y[1] = t01 - t02 - t03;
+        y[2] = t10 + t11 + t12;
+        y[3] = t11 - t12 - t13;
+    }
+
+    /** dm = A dy A^T: gradient of {@link #outputTransform}, 2x2 to 4x4. */
+    static void outputTransformBackward(double[] dy, double[] dm) {
+        // A dy is 4x2; each of its rows times A^T gives one row of dm
+        outputRowBackward(dy[0], dy[1], dm, 0);
+        outputRowBackward(dy[0] + dy[2], dy[1] + dy[3], dm, 4);
+        outputRowBackward(dy[0] - dy[2], dy[1] - dy[3], dm, 8);
+        outputRowBackward(-dy[2], -dy[3], dm, 12);
+    }
+
+    private static void outputRowBackward(double t0, double t1, double[] dm, int offset) {
+        dm[offset] = t0;
+        dm[offset + 1] = t0 + t1;
+        dm[offset + 2] = t0 - t1;
+        dm[offset + 3] = -t1;
+    }
+}
@@ -0,0 +1,69 @@
+package Tools.Testing;
+
+import Training.ActivationFunctions.ActivationFunction;
+import Training.ActivationFunctions.Sigmoid;
+import Training.ActivationFunctions.Tanh;
+
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Compares the exact and approximate Tanh and Sigmoid: maximum absolute error against the
+ * {@link Math} reference over a dense grid, and bulk throughput in nanoseconds per element.
+ * <p>
+ * Run with {@code --add-modules jdk.incubator.vector} to measure the SIMD kernels. The approximations
+ * only pay off on the scalar path; with SIMD the exact kernels are about as fast.
+ * </p>
+ */
+public class ActivationBenchmark {
+    private static final int LENGTH = 1 << 14;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 2000;
+
+    public static void main(String[] args) {
+        DoubleUnaryOperator tanh = Math::tanh;
+        DoubleUnaryOperator sigmoid = x -> 1d / (1 + Math.exp(-x));
+
+        report("Tanh", new Tanh(), tanh);
+        report("Tanh (approximate)", new Tanh(true), tanh);
+        report("Sigmoid", new Sigmoid(), sigmoid);
+        report("Sigmoid (approximate)", new Sigmoid(true), sigmoid);
+    }
+
+    private static void report(String name, ActivationFunction function, DoubleUnaryOperator reference) {
+        // Error over [-20, 20] in steps of 1e-5, which covers the saturated tails as well
+        double maxError = 0;
+        double[] grid = new double[4_000_001];
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = -20 + i * 1e-5;
+        }
+        double[] values = new double[grid.length];
+        function.activate(grid, values, 0, grid.length);
+        for (int i = 0; i < grid.length; i++) {
+            maxError = Math.max(maxError, Math.abs(values[i] - reference.applyAsDouble(grid[i])));
+        }
+
+        Random random = new Random(42);
+        double[] in = new double[LENGTH], out = new double[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            in[i] = random.nextGaussian() * 3;
+        }
+        double activateTime = 0, derivativeTime = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                function.activate(in, out, 0, LENGTH);
+            }
+            long middle = System.nanoTime();
+            for (int r = 0; r < ROUNDS; r++) {
+                function.derivative(in, out, 0, LENGTH);
+            }
+            long end = System.nanoTime();
+            activateTime = (double) (middle - start) / ROUNDS / LENGTH;
+            derivativeTime = (double) (end - middle) / ROUNDS / LENGTH;
+        }
+
+        System.out.printf("%-22s max error %.2e   activate %6.2f ns/element   derivative %6.2f ns/element%n",
+                name, maxError, activateTime, derivativeTime);
+    }
+}
@@ -0,0 +1,214 @@
+package Tools.Testing;
+
+import Structures.BatchNormLayer;
+import Structures.ConvLayer;
+import Structures.DQN;
+import Structures.FlattenLayer;
+import Structures.Layer;
+import Structures.MLPLayer;
+import Structures.MatrixDouble;
+import Structures.Tensor;
+import Training.ActivationFunctions.ActivationFunction;
+import Training.ActivationFunctions.LeakyReLU;
+import Training.ActivationFunctions.Linear;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the blocked GEMM variants, every ConvLayer path and batch normalization folding against
+ * naive reference loops, and prints the maximum absolute error of each.
+ * <p>
+ * ConvLayer picks its path from the layer shape: Winograd for 3x3, stride 1 layers with at least 8 input
+ * and output channels, direct convolution when one sample's im2col columns exceed the column buffer limit,
+ * and im2col otherwise. The configurations below cover each path. Exits with status 1 if any error is
+ * above {@link #TOLERANCE}. Run with and without {@code --add-modules jdk.incubator.vector} to cover both
+ * kernel implementations.
+ * </p>
+ */
+public class ConvolutionReferenceCheck {
+    private static final double TOLERANCE = 1e-9;
+    private static final int BATCH = 3;
+
+    private static final Random RANDOM = new Random(42);
+    private static boolean failed = false;
+
+    public static void main(String[] args) {
+        // {m, n, k}: one block, ragged edges, several cache blocks and the parallel path
+        for (int[] shape : new int[][]{{1, 1, 1}, {5, 7, 3}, {65, 130, 257}, {130, 70, 300}}) {
+            checkGemm(shape[0], shape[1], shape[2]);
+        }
+
+        // {width, height, depth, filterSize, filters, strideX, strideY, paddingX, paddingY}
+        checkConvolution("im2col", new int[]{9, 7, 3, 3, 5, 1, 1, 1, 1});
+        checkConvolution("im2col", new int[]{12, 12, 2, 5, 4, 2, 2, 2, 1});
+        checkConvolution("im2col", new int[]{7, 6, 9, 3, 10, 2, 1, 0, 2});
+        checkConvolution("Winograd", new int[]{9, 7, 8, 3, 8, 1, 1, 1, 1});
+        checkConvolution("Winograd", new int[]{10, 10, 12, 3, 8, 1, 1, 2, 0});
+        checkConvolution("direct", new int[]{180, 180, 16, 3, 2, 1, 1, 1, 1});
+
+        checkBatchNormFold(new Linear());
+        checkBatchNormFold(new LeakyReLU(0.1f));
+
+        if (failed) {
+            System.out.println("FAILED: errors above " + TOLERANCE);
+            System.exit(1);
+        }
+        System.out.println("All checks within " + TOLERANCE);
+    }
+
+    private static void checkGemm(int m, int n, int k) {
+        MatrixDouble a = random(m, k), b = random(k, n);
+        MatrixDouble aT = MatrixDouble.transpose(a), bT = MatrixDouble.transpose(b);
+        double[] expected = new double[m * n];
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0;
+                for (int p = 0; p < k; p++) {
+                    sum += a.getData()[i * k + p] * b.getData()[p * n + j];
+                }
+                expected[i * n + j] = sum;
+            }
+        }
+
+        double error = maxError(expected, MatrixDouble.multiply(a, b).getData());
+        error = Math.max(error, maxError(expected, MatrixDouble.multiplyTransA(aT, b).getData()));
+        error = Math.max(error, maxError(expected, MatrixDouble.multiplyTransB(a, bT).getData()));
+        error = Math.max(error, maxError(expected, MatrixDouble.multiplyTransAB(aT, bT).getData()));
+        report(String.format("GEMM %dx%dx%d (plain, A^T, B^T, A^T B^T)", m, n, k), error);
+    }
+
+    private static void checkConvolution(String path, int[] config) {
+        int width = config[0], height = config[1], depth = config[2], filterSize = config[3], numFilters = config[4];
+        int strideX = config[5], strideY = config[6], paddingX = config[7], paddingY = config[8];
+        int outputHeight = (height - filterSize + 2 * paddingY) / strideY + 1;
+        int outputWidth = (width - filterSize + 2 * paddingX) / strideX + 1;
+
+        ActivationFunction phi = new LeakyReLU(0.1f);
+        ConvLayer layer = new ConvLayer(phi, width, height, depth, filterSize, numFilters, strideX, strideY, paddingX, paddingY);
+        for (int f = 0; f < numFilters; f++) {
+            layer.biases[f] = RANDOM.nextGaussian();
+        }
+        Tensor[] inputs = new Tensor[BATCH], gradientOutputs = new Tensor[BATCH];
+        for (int b = 0; b < BATCH; b++) {
+            inputs[b] = random(depth, height, width);
+            gradientOutputs[b] = random(numFilters, outputHeight, outputWidth);
+        }
+
+        // Reference: direct loops over every output, with the layer's own gradient convention g * phi'(g)
+        double[][] expectedOutputs = new double[BATCH][numFilters * outputHeight * outputWidth];
+        double[][] expectedGradientInputs = new double[BATCH][depth * height * width];
+        double[] expectedGradientFilters = new double[layer.filters.length];
+        double[] expectedGradientBiases = new double[numFilters];
+        for (int b = 0; b < BATCH; b++) {
+            for (int f = 0; f < numFilters; f++) {
+                for (int i = 0; i < outputHeight; i++) {
+                    for (int j = 0; j < outputWidth; j++) {
+                        double g = gradientOutputs[b].get(f, i, j);
+                        double delta = g * phi.derivative(g);
+                        double sum = layer.biases[f];
+                        expectedGradientBiases[f] += delta;
+                        for (int d = 0; d < depth; d++) {
+                            for (int k = 0; k < filterSize; k++) {
+                                for (int l = 0; l < filterSize; l++) {
+                                    int y = i * strideY - paddingY + k, x = j * strideX - paddingX + l;
+                                    if (y < 0 || x < 0 || y >= height || x >= width) {
+                                        continue;
+                                    }
+                                    int w = layer.filterIndex(f, d, k, l);
+                                    sum += layer.filters[w] * inputs[b].get(d, y, x);
+                                    expectedGradientFilters[w] += delta * inputs[b].get(d, y, x);
+                                    expectedGradientInputs[b][inputs[b].index(d, y, x)] += delta * layer.filters[w];
+                                }
+                            }
+                        }
+                        expectedOutputs[b][(f * outputHeight + i) * outputWidth + j] = phi.activate(sum);
+                    }
+                }
+            }
+        }
+
+        Tensor[] outputs = (Tensor[]) layer.compute(inputs);
+        Tensor single = (Tensor) layer.compute(inputs[1]);
+        double forwardError = maxError(expectedOutputs[1], single.getData());
+        for (int b = 0; b < BATCH; b++) {
+            forwardError = Math.max(forwardError, maxError(expectedOutputs[b], outputs[b].getData()));
+        }
+
+        Tensor[] gradientInputs = (Tensor[]) layer.backpropagate(inputs, gradientOutputs);
+        double backwardError = Math.max(maxError(expectedGradientFilters, layer.getGradientFilters()),
+                maxError(expectedGradientBiases, layer.getGradientBiases()));
+        for (int b = 0; b < BATCH; b++) {
+            backwardError = Math.max(backwardError, maxError(expectedGradientInputs[b], gradientInputs[b].getData()));
+        }
+
+        String name = String.format("Conv %-8s %dx%dx%d, %dx%d x%d, stride %d/%d, padding %d/%d",
+                path, depth, height, width, filterSize, filterSize, numFilters, strideX, strideY, paddingX, paddingY);
+        report(name + " forward", forwardError);
+        report(name + " backward", backwardError);
+    }
+
+    private static void checkBatchNormFold(ActivationFunction phi) {
+        List<Layer> layers = new ArrayList<>();
+        layers.add(new ConvLayer(phi, 9, 9, 3, 3, 6, 1, 1, 1, 1));
+        layers.add(new BatchNormLayer(6, 9, 9));
+        layers.add(new ConvLayer(new LeakyReLU(0.1f), 9, 9, 6, 3, 8, 1, 1, 1, 1));
+        layers.add(new BatchNormLayer(8, 9, 9));
+        layers.add(new FlattenLayer(8, 9, 9));
+        layers.add(new MLPLayer(8 * 81, 4, new Linear(), 0, 0));
+        DQN network = new DQN(243, layers, 0.01);
+
+        BatchNormLayer batchNorm = (BatchNormLayer) layers.get(1);
+        for (int d = 0; d < 6; d++) {
+            batchNorm.gamma[d] = 1 + RANDOM.nextGaussian() * 0.3;
+            batchNorm.beta[d] = RANDOM.nextGaussian();
+        }
+        // Move the running statistics away from their initial values
+        for (int i = 0; i < 50; i++) {
+            Tensor state = random(3, 9, 9);
+            for (int e = 0; e < state.size(); e++) {
+                state.getData()[e] = state.getData()[e] * 2 + 1;
+            }
+            network.getOutput(state);
+        }
+
+        Tensor state = random(3, 9, 9);
+        DQN folded = network.foldBatchNorm();
+        network.setTraining(false);
+        MatrixDouble expected = (MatrixDouble) network.getOutput(state);
+        MatrixDouble actual = (MatrixDouble) folded.getOutput(state);
+        report(String.format("BatchNorm fold (%s, %d -> %d layers)", phi.getClass().getSimpleName(),
+                network.numLayers(), folded.numLayers()), maxError(expected.getData(), actual.getData()));
+    }
+
+    private static MatrixDouble random(int rows, int cols) {
+        MatrixDouble matrix = new MatrixDouble(rows, cols);
+        for (int i = 0; i < rows * cols; i++) {
+            matrix.getData()[i] = RANDOM.nextGaussian();
+        }
+        return matrix;
+    }
+
+    private static Tensor random(int depth, int height, int width) {
+        Tensor tensor = new Tensor(depth, height, width);
+        for (int i = 0; i < tensor.size(); i++) {
+            tensor.getData()[i] = RANDOM.nextGaussian();
+        }
+        return tensor;
+    }
+
+    private static double maxError(double[] expected, double[] actual) {
+        double error = 0;
+        for (int i = 0; i < expected.length; i++) {
+            error = Math.max(error, Math.abs(expected[i] - actual[i]));
+        }
+        return error;
+    }
+
+    private static void report(String name, double error) {
+        boolean ok = error <= TOLERANCE;
+        failed |= !ok;
+        System.out.printf("%-70s max error %.2e %s%n", name, error, ok ? "" : "FAILED");
+    }
+}
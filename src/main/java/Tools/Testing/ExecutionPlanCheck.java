@@ -0,0 +1,146 @@
+package Tools.Testing;
+
+import Structures.BatchNormLayer;
+import Structures.ConvLayer;
+import Structures.DQN;
+import Structures.ExecutionPlan;
+import Structures.FlattenLayer;
+import Structures.Layer;
+import Structures.MLPLayer;
+import Structures.MatrixDouble;
+import Structures.ParameterBlock;
+import Structures.Tensor;
+import Training.ActivationFunctions.LeakyReLU;
+import Training.ActivationFunctions.Linear;
+import Training.ActivationFunctions.ReLU;
+import Training.ActivationFunctions.Tanh;
+import Training.Optimizers.Adam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Trains two copies of the same network side by side, one through {@link DQN#compile(int)}'s execution plan
+ * and one through the layer-by-layer forward pass and backpropagation, and checks that their outputs and
+ * parameters stay bit for bit identical over {@link #STEPS} training steps.
+ * <p>
+ * Covers an MLP and a Conv/BatchNorm/Flatten network at batch sizes 1 and 8. Exits with status 1 on any difference.
+ * </p>
+ */
+public class ExecutionPlanCheck {
+    private static final int STEPS = 20;
+    private static final int ACTIONS = 4;
+
+    public static void main(String[] args) {
+        boolean failed = false;
+        for (boolean spatial : new boolean[]{false, true}) {
+            for (int batchSize : new int[]{1, 8}) {
+                failed |= !check(spatial, batchSize);
+            }
+        }
+        if (failed) {
+            System.out.println("FAILED: the plan diverged from the reference path");
+            System.exit(1);
+        }
+        System.out.println("Plan and reference path identical");
+    }
+
+    private static boolean check(boolean spatial, int batchSize) {
+        List<Layer> referenceLayers = spatial ? convLayers() : mlpLayers();
+        List<Layer> planLayers = new ArrayList<>();
+        for (Layer layer : referenceLayers) {
+            Layer copy = layer.copy();
+            layer.copyTo(copy, false);
+            planLayers.add(copy);
+        }
+        ReferenceNetwork reference = new ReferenceNetwork(referenceLayers);
+        DQN network = new DQN(0, planLayers, 0.001);
+        reference.setOptimizer(new Adam());
+        network.setOptimizer(new Adam());
+        ExecutionPlan plan = network.compile(batchSize);
+
+        Random random = new Random(1);
+        double outputDifference = 0;
+        for (int step = 0; step < STEPS; step++) {
+            List<Object> states = new ArrayList<>();
+            for (int b = 0; b < batchSize; b++) {
+                states.add(state(random, spatial));
+            }
+            MatrixDouble target = new MatrixDouble(ACTIONS, batchSize);
+            target.randomize(-1, 1);
+
+            MatrixDouble expected = reference.trainStep(DQN.stackBatch(states), target);
+            MatrixDouble actual = plan.forward(states);
+            outputDifference = Math.max(outputDifference, maxDifference(expected.getData(), actual.getData(), expected.getRows() * batchSize));
+            plan.backward(target);
+        }
+
+        double parameterDifference = 0;
+        for (int i = 0; i < referenceLayers.size(); i++) {
+            List<ParameterBlock> expected = referenceLayers.get(i).getParameterBlocks();
+            List<ParameterBlock> actual = planLayers.get(i).getParameterBlocks();
+            for (int p = 0; p < expected.size(); p++) {
+                parameterDifference = Math.max(parameterDifference,
+                        maxDifference(expected.get(p).values, actual.get(p).values, expected.get(p).length));
+            }
+        }
+
+        boolean identical = outputDifference == 0 && parameterDifference == 0;
+        System.out.printf("%-4s batch %d: max output difference %.2e, max parameter difference %.2e over %d steps %s%n",
+                spatial ? "conv" : "mlp", batchSize, outputDifference, parameterDifference, STEPS, identical ? "" : "FAILED");
+        return identical;
+    }
+
+    /**
+     * Exposes the layer-by-layer training step the plan replaces.
+     */
+    private static class ReferenceNetwork extends DQN {
+        ReferenceNetwork(List<Layer> layers) {
+            super(0, layers, 0.001);
+        }
+
+        MatrixDouble trainStep(Object batch, MatrixDouble target) {
+            List<Object> layerOutputs = forwardPass(batch);
+            MatrixDouble output = ((MatrixDouble) layerOutputs.getLast()).copy();
+            backpropagate(batch, target, layerOutputs);
+            return output;
+        }
+    }
+
+    private static List<Layer> mlpLayers() {
+        List<Layer> layers = new ArrayList<>();
+        layers.add(new MLPLayer(8, 32, new LeakyReLU(0.01f), 0, 0.001));
+        layers.add(new MLPLayer(32, 32, new Tanh(), 0, 0.001));
+        layers.add(new MLPLayer(32, ACTIONS, new Linear(), 0, 0.001));
+        return layers;
+    }
+
+    private static List<Layer> convLayers() {
+        List<Layer> layers = new ArrayList<>();
+        layers.add(new ConvLayer(new LeakyReLU(0.01f), 10, 10, 3, 3, 8, 1, 1, 1, 1));
+        layers.add(new BatchNormLayer(8, 10, 10));
+        layers.add(new ConvLayer(new ReLU(), 10, 10, 8, 3, 8, 1, 1, 1, 1));
+        layers.add(new ConvLayer(new Tanh(), 10, 10, 8, 3, 4, 2, 2, 1, 1));
+        layers.add(new FlattenLayer(4, 5, 5));
+        layers.add(new MLPLayer(100, 16, new LeakyReLU(0.01f), 0, 0.001));
+        layers.add(new MLPLayer(16, ACTIONS, new Linear(), 0, 0.001));
+        return layers;
+    }
+
+    private static Object state(Random random, boolean spatial) {
+        double[] values = new double[spatial ? 300 : 8];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian();
+        }
+        return spatial ? new Tensor(values, 3, 10, 10) : MatrixDouble.wrap(values, 8, 1);
+    }
+
+    private static double maxDifference(double[] expected, double[] actual, int length) {
+        double difference = 0;
+        for (int i = 0; i < length; i++) {
+            difference = Math.max(difference, Math.abs(expected[i] - actual[i]));
+        }
+        return difference;
+    }
+}
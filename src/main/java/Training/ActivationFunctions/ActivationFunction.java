@@ -18,4 +18,32 @@ public abstract class ActivationFunction implements Serializable {
      * @return the derivative of the activation function at the given input
      */
     abstract public double derivative(double x);
+
+    /**
+     * Activates a whole range at once: {@code out[offset + i] = activate(in[offset + i])} for {@code i < length}.
+     * in and out may be the same array. Subclasses override this with a branch-free or SIMD loop.
+     */
+    public void activate(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = activate(in[i]);
+        }
+    }
+
+    /**
+     * Bulk form of {@link #derivative(double)}: {@code out[offset + i] = derivative(in[offset + i])} for {@code i < length}.
+     * in and out may be the same array.
+     */
+    public void derivative(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = derivative(in[i]);
+        }
+    }
+
+    /**
+     * True if this function is the identity, so callers can skip the activation pass and the multiplication
+     * by its derivative altogether.
+     */
+    public boolean isIdentity() {
+        return false;
+    }
 }
@@ -0,0 +1,90 @@
+package Training.ActivationFunctions;
+
+/**
+ * Bulk loops behind the activation functions' array methods.
+ * <p>
+ * Like the matrix kernels in {@code Structures}, a Vector API implementation is used when the
+ * {@code jdk.incubator.vector} module is present and {@code -DStructures.simd=false} is not set;
+ * otherwise the scalar, branch-free implementation is used.
+ * </p>
+ * All methods write {@code out[i] = f(in[i])} for {@code i} in {@code [offset, offset + length)}.
+ */
+abstract class ActivationKernels {
+    static final ActivationKernels INSTANCE = select();
+
+    /**
+     * Inputs are clamped to [-APPROXIMATE_TANH_LIMIT, APPROXIMATE_TANH_LIMIT] before {@link #approximateTanh(double)};
+     * beyond it tanh is within 6e-10 of +-1.
+     */
+    static final double APPROXIMATE_TANH_LIMIT = 11;
+    /** Largest absolute error of {@link #approximateTanh(double)} against {@link Math#tanh(double)}. */
+    static final double APPROXIMATE_TANH_MAX_ERROR = 1.1e-9;
+
+    private static ActivationKernels select() {
+        boolean enabled = Boolean.parseBoolean(System.getProperty("Structures.simd", "true"));
+        if (enabled && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded by name so this class never links against the incubator module when it is absent
+                return (ActivationKernels) Class.forName("Training.ActivationFunctions.VectorActivationKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall through to the scalar kernels
+            }
+        }
+        return new ScalarActivationKernels();
+    }
+
+    /**
+     * Fast tanh using only multiplies, adds and one division, so it runs branch-free in SIMD lanes.
+     * <p>
+     * The input is clamped, divided by 4, and passed through the [5/4] Padé approximant of tanh
+     * {@code y (945 + 105 y^2 + y^4) / (945 + 420 y^2 + 15 y^4)}, which is very accurate for small y.
+     * The result is then doubled twice with {@code tanh(2y) = 2t / (1 + t^2)}, kept as a numerator/denominator
+     * pair ({@code (a, b) -> (2ab, a^2 + b^2)}) so the only division is the last one. The maximum absolute error is
+     * {@link #APPROXIMATE_TANH_MAX_ERROR}.
+     * </p>
+     */
+    static double approximateTanh(double x) {
+        double y = Math.max(-APPROXIMATE_TANH_LIMIT, Math.min(x, APPROXIMATE_TANH_LIMIT)) * 0.25;
+        double y2 = y * y;
+        double a = y * (945 + y2 * (105 + y2));
+        double b = 945 + y2 * (420 + y2 * 15);
+        double a1 = 2 * a * b, b1 = a * a + b * b;
+        return 2 * a1 * b1 / (a1 * a1 + b1 * b1);
+    }
+
+    /** sigmoid(x) = (1 + tanh(x / 2)) / 2, so its error is half of {@link #approximateTanh(double)}'s. */
+    static double approximateSigmoid(double x) {
+        return 0.5 + 0.5 * approximateTanh(0.5 * x);
+    }
+
+    abstract void relu(double[] in, double[] out, int offset, int length);
+
+    abstract void reluDerivative(double[] in, double[] out, int offset, int length);
+
+    abstract void leakyRelu(double slope, double[] in, double[] out, int offset, int length);
+
+    abstract void leakyReluDerivative(double slope, double[] in, double[] out, int offset, int length);
+
+    abstract void tanh(double[] in, double[] out, int offset, int length);
+
+    /** out[i] = 1 - tanh(in[i])^2 */
+    abstract void tanhDerivative(double[] in, double[] out, int offset, int length);
+
+    abstract void sigmoid(double[] in, double[] out, int offset, int length);
+
+    /** out[i] = s * (1 - s) with s = sigmoid(in[i]) */
+    abstract void sigmoidDerivative(double[] in, double[] out, int offset, int length);
+
+    /** {@link #approximateTanh(double)} over a range */
+    abstract void approximateTanh(double[] in, double[] out, int offset, int length);
+
+    /** out[i] = 1 - t^2 with t = approximateTanh(in[i]) */
+    abstract void approximateTanhDerivative(double[] in, double[] out, int offset, int length);
+
+    /** {@link #approximateSigmoid(double)} over a range */
+    abstract void approximateSigmoid(double[] in, double[] out, int offset, int length);
+
+    /** out[i] = s * (1 - s) with s = approximateSigmoid(in[i]) */
+    abstract void approximateSigmoidDerivative(double[] in, double[] out, int offset, int length);
+}
@@ -15,4 +15,14 @@ public class LeakyReLU extends ActivationFunction {
     public double derivative(double x) {
         return x > 0 ? 1 : gradient;
     }
+
+    @Override
+    public void activate(double[] in, double[] out, int offset, int length) {
+        ActivationKernels.INSTANCE.leakyRelu(gradient, in, out, offset, length);
+    }
+
+    @Override
+    public void derivative(double[] in, double[] out, int offset, int length) {
+        ActivationKernels.INSTANCE.leakyReluDerivative(gradient, in, out, offset, length);
+    }
 }
@@ -1,5 +1,7 @@
 package Training.ActivationFunctions;
 
+import java.util.Arrays;
+
 public class Linear extends ActivationFunction {
     @Override
     public double activate(double x) {
@@ -8,4 +10,21 @@ public class Linear extends ActivationFunction {
 
     @Override
     public double derivative(double x) { return 1; }
+
+    @Override
+    public void activate(double[] in, double[] out, int offset, int length) {
+        if (in != out) {
+            System.arraycopy(in, offset, out, offset, length);
+        }
+    }
+
+    @Override
+    public void derivative(double[] in, double[] out, int offset, int length) {
+        Arrays.fill(out, offset, offset + length, 1);
+    }
+
+    @Override
+    public boolean isIdentity() {
+        return true;
+    }
 }
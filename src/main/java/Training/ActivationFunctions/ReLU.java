@@ -10,4 +10,14 @@ public class ReLU extends ActivationFunction {
     public double derivative(double x) {
         return x > 0 ? 1 : 0;
     }
+
+    @Override
+    public void activate(double[] in, double[] out, int offset, int length) {
+        ActivationKernels.INSTANCE.relu(in, out, offset, length);
+    }
+
+    @Override
+    public void derivative(double[] in, double[] out, int offset, int length) {
+        ActivationKernels.INSTANCE.reluDerivative(in, out, offset, length);
+    }
 }
@@ -0,0 +1,97 @@
+package Training.ActivationFunctions;
+
+/**
+ * Plain Java implementation of {@link ActivationKernels}. The loops are free of data-dependent
+ * branches, so the JIT compiles the piecewise-linear ones to conditional moves or vector blends.
+ */
+class ScalarActivationKernels extends ActivationKernels {
+    @Override
+    void relu(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            double x = in[i];
+            out[i] = x < 0 ? 0 : x;
+        }
+    }
+
+    @Override
+    void reluDerivative(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = in[i] > 0 ? 1 : 0;
+        }
+    }
+
+    @Override
+    void leakyRelu(double slope, double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            double x = in[i];
+            out[i] = x > 0 ? x : slope * x;
+        }
+    }
+
+    @Override
+    void leakyReluDerivative(double slope, double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = in[i] > 0 ? 1 : slope;
+        }
+    }
+
+    @Override
+    void tanh(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = Math.tanh(in[i]);
+        }
+    }
+
+    @Override
+    void tanhDerivative(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            double tanh = Math.tanh(in[i]);
+            out[i] = 1 - tanh * tanh;
+        }
+    }
+
+    @Override
+    void sigmoid(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = 1d / (1 + Math.exp(-in[i]));
+        }
+    }
+
+    @Override
+    void sigmoidDerivative(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            double sigma = 1d / (1 + Math.exp(-in[i]));
+            out[i] = sigma * (1 - sigma);
+        }
+    }
+
+    @Override
+    void approximateTanh(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = approximateTanh(in[i]);
+        }
+    }
+
+    @Override
+    void approximateTanhDerivative(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            double tanh = approximateTanh(in[i]);
+            out[i] = 1 - tanh * tanh;
+        }
+    }
+
+    @Override
+    void approximateSigmoid(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = approximateSigmoid(in[i]);
+        }
+    }
+
+    @Override
+    void approximateSigmoidDerivative(double[] in, double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            double sigma = approximateSigmoid(in[i]);
+            out[i] = sigma * (1 - sigma);
+        }
+    }
+}
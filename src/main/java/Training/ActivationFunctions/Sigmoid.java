@@ -1,10 +1,24 @@
 package Training.ActivationFunctions;
 
 public class Sigmoid extends ActivationFunction {
+    boolean approximate;
+
+    public Sigmoid() {
+        this(false);
+    }
+
+    /**
+     * @param approximate compute sigmoid from the rational tanh approximation (absolute error below 6e-10)
+     *                    instead of {@link Math#exp(double)}. Only worth it on the scalar path, where it is about
+     *                    7 times faster; with the Vector API the exact kernel is as fast or faster
+     */
+    public Sigmoid(boolean approximate) {
+        this.approximate = approximate;
+    }
 
     @Override
     public double activate(double x) {
-        return (1d / (1 + Math.exp(-x)));
+        return approximate ? ActivationKernels.approximateSigmoid(x) : (1d / (1 + Math.exp(-x)));
     }
 
     @Override
@@ -12,4 +26,22 @@ public class Sigmoid extends ActivationFunction {
         double sigma = activate(x);
         return sigma * (1 - sigma);
     }
+
+    @Override
+    public void activate(double[] in, double[] out, int offset, int length) {
+        if (approximate) {
+            ActivationKernels.INSTANCE.approximateSigmoid(in, out, offset, length);
+        } else {
+            ActivationKernels.INSTANCE.sigmoid(in, out, offset, length);
+        }
+    }
+
+    @Override
+    public void derivative(double[] in, double[] out, int offset, int length) {
+        if (approximate) {
+            ActivationKernels.INSTANCE.approximateSigmoidDerivative(in, out, offset, length);
+        } else {
+            ActivationKernels.INSTANCE.sigmoidDerivative(in, out, offset, length);
+        }
+    }
 }
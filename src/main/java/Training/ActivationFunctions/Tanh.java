@@ -1,14 +1,47 @@
 package Training.ActivationFunctions;
 
 public class Tanh extends ActivationFunction {
+    boolean approximate;
+
+    public Tanh() {
+        this(false);
+    }
+
+    /**
+     * @param approximate use the rational approximation (absolute error below 1.1e-9) instead of
+     *                    {@link Math#tanh(double)}. Only worth it on the scalar path, where it is about 15 times
+     *                    faster; with the Vector API the exact kernel is about as fast
+     */
+    public Tanh(boolean approximate) {
+        this.approximate = approximate;
+    }
+
     @Override
     public double activate(double x) {
-        return Math.tanh(x);
+        return approximate ? ActivationKernels.approximateTanh(x) : Math.tanh(x);
     }
 
     @Override
     public double derivative(double x) {
-        double tanh = Math.tanh(x);
+        double tanh = activate(x);
         return 1 - (tanh * tanh);
     }
+
+    @Override
+    public void activate(double[] in, double[] out, int offset, int length) {
+        if (approximate) {
+            ActivationKernels.INSTANCE.approximateTanh(in, out, offset, length);
+        } else {
+            ActivationKernels.INSTANCE.tanh(in, out, offset, length);
+        }
+    }
+
+    @Override
+    public void derivative(double[] in, double[] out, int offset, int length) {
+        if (approximate) {
+            ActivationKernels.INSTANCE.approximateTanhDerivative(in, out, offset, length);
+        } else {
+            ActivationKernels.INSTANCE.tanhDerivative(in, out, offset, length);
+        }
+    }
 }
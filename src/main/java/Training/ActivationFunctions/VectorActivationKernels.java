@@ -0,0 +1,153 @@
+package Training.ActivationFunctions;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ActivationKernels} implemented with the incubating Java Vector API. The piecewise-linear
+ * functions become a compare and a blend per vector; tanh and exp use the JDK's vectorised math intrinsics.
+ * Only instantiated reflectively by {@link ActivationKernels} once the module is known to be present.
+ */
+class VectorActivationKernels extends ActivationKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final ScalarActivationKernels TAIL = new ScalarActivationKernels();
+
+    @Override
+    void relu(double[] in, double[] out, int offset, int length) {
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, in, i);
+            x.blend(0, x.compare(VectorOperators.LT, 0)).intoArray(out, i);
+        }
+        TAIL.relu(in, out, i, offset + length - i);
+    }
+
+    @Override
+    void reluDerivative(double[] in, double[] out, int offset, int length) {
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            VectorMask<Double> positive = DoubleVector.fromArray(SPECIES, in, i).compare(VectorOperators.GT, 0);
+            zero.blend(1, positive).intoArray(out, i);
+        }
+        TAIL.reluDerivative(in, out, i, offset + length - i);
+    }
+
+    @Override
+    void leakyRelu(double slope, double[] in, double[] out, int offset, int length) {
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, in, i);
+            x.mul(slope).blend(x, x.compare(VectorOperators.GT, 0)).intoArray(out, i);
+        }
+        TAIL.leakyRelu(slope, in, out, i, offset + length - i);
+    }
+
+    @Override
+    void leakyReluDerivative(double slope, double[] in, double[] out, int offset, int length) {
+        DoubleVector slopes = DoubleVector.broadcast(SPECIES, slope);
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            VectorMask<Double> positive = DoubleVector.fromArray(SPECIES, in, i).compare(VectorOperators.GT, 0);
+            slopes.blend(1, positive).intoArray(out, i);
+        }
+        TAIL.leakyReluDerivative(slope, in, out, i, offset + length - i);
+    }
+
+    @Override
+    void tanh(double[] in, double[] out, int offset, int length) {
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector.fromArray(SPECIES, in, i).lanewise(VectorOperators.TANH).intoArray(out, i);
+        }
+        TAIL.tanh(in, out, i, offset + length - i);
+    }
+
+    @Override
+    void tanhDerivative(double[] in, double[] out, int offset, int length) {
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector tanh = DoubleVector.fromArray(SPECIES, in, i).lanewise(VectorOperators.TANH);
+            tanh.fma(tanh.neg(), DoubleVector.broadcast(SPECIES, 1)).intoArray(out, i);
+        }
+        TAIL.tanhDerivative(in, out, i, offset + length - i);
+    }
+
+    @Override
+    void sigmoid(double[] in, double[] out, int offset, int length) {
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            sigmoid(DoubleVector.fromArray(SPECIES, in, i)).intoArray(out, i);
+        }
+        TAIL.sigmoid(in, out, i, offset + length - i);
+    }
+
+    @Override
+    void sigmoidDerivative(double[] in, double[] out, int offset, int length) {
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector sigma = sigmoid(DoubleVector.fromArray(SPECIES, in, i));
+            sigma.mul(sigma.neg().add(1)).intoArray(out, i);
+        }
+        TAIL.sigmoidDerivative(in, out, i, offset + length - i);
+    }
+
+    private static DoubleVector sigmoid(DoubleVector x) {
+        return DoubleVector.broadcast(SPECIES, 1).div(x.neg().lanewise(VectorOperators.EXP).add(1));
+    }
+
+    @Override
+    void approximateTanh(double[] in, double[] out, int offset, int length) {
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            approximateTanh(DoubleVector.fromArray(SPECIES, in, i)).intoArray(out, i);
+        }
+        TAIL.approximateTanh(in, out, i, offset + length - i);
+    }
+
+    @Override
+    void approximateTanhDerivative(double[] in, double[] out, int offset, int length) {
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector tanh = approximateTanh(DoubleVector.fromArray(SPECIES, in, i));
+            tanh.fma(tanh.neg(), DoubleVector.broadcast(SPECIES, 1)).intoArray(out, i);
+        }
+        TAIL.approximateTanhDerivative(in, out, i, offset + length - i);
+    }
+
+    @Override
+    void approximateSigmoid(double[] in, double[] out, int offset, int length) {
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            approximateSigmoid(DoubleVector.fromArray(SPECIES, in, i)).intoArray(out, i);
+        }
+        TAIL.approximateSigmoid(in, out, i, offset + length - i);
+    }
+
+    @Override
+    void approximateSigmoidDerivative(double[] in, double[] out, int offset, int length) {
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += LANES) {
+            DoubleVector sigma = approximateSigmoid(DoubleVector.fromArray(SPECIES, in, i));
+            sigma.mul(sigma.neg().add(1)).intoArray(out, i);
+        }
+        TAIL.approximateSigmoidDerivative(in, out, i, offset + length - i);
+    }
+
+    /** Lane-wise {@link ActivationKernels#approximateTanh(double)}. */
+    private static DoubleVector approximateTanh(DoubleVector x) {
+        DoubleVector y = x.max(-APPROXIMATE_TANH_LIMIT).min(APPROXIMATE_TANH_LIMIT).mul(0.25);
+        DoubleVector y2 = y.mul(y);
+        DoubleVector a = y.mul(y2.add(105).fma(y2, DoubleVector.broadcast(SPECIES, 945)));
+        DoubleVector b = y2.mul(15).add(420).fma(y2, DoubleVector.broadcast(SPECIES, 945));
+        DoubleVector a1 = a.mul(b).mul(2), b1 = a.fma(a, b.mul(b));
+        return a1.mul(b1).mul(2).div(a1.fma(a1, b1.mul(b1)));
+    }
+
+    private static DoubleVector approximateSigmoid(DoubleVector x) {
+        return approximateTanh(x.mul(0.5)).fma(DoubleVector.broadcast(SPECIES, 0.5), DoubleVector.broadcast(SPECIES, 0.5));
+    }
+}
@@ -1,7 +1,9 @@
 package Training;
 
 import Structures.DDQNAgent;
+import Structures.Layer;
 import Structures.MatrixDouble;
+import Structures.Precision;
 import Structures.Vector2;
 import Tools.Environment_Visualiser;
 import Tools.GraphPlotter;
@@ -33,12 +35,25 @@ public class DDQNAgentTrainer {
      * @param numEpisodes            the number of episodes to train the agent
      * @param savePeriod             the period (in episodes) at which the agent's state is saved
      * @param visualiserUpdatePeriod the period (in episodes) at which the visualiser is updated
-     * @param varargs                additional arguments for training options (e.g., "verbose", "plot", "show_path")
+     * @param varargs                additional arguments for training options (e.g., "verbose", "plot", "show_path", "float32_mlp", "async_target").
+     *                               "float32_mlp" reads MLP weights and stores replay states in single precision; other
+     *                               layers stay in double
      */
     public void trainAgent(DDQNAgent agent, int numEpisodes, int savePeriod, int visualiserUpdatePeriod, String... varargs) {
         List<String> args = Arrays.asList(varargs);
         boolean isVerbose = args.contains("verbose");  // Declared verbose flag here
         boolean dumpInfo = args.contains("dump_info");
+        Precision precision = args.contains("float32_mlp") ? Precision.FLOAT : Precision.DOUBLE;
+        agent.setPrecision(precision);
+        if (precision == Precision.FLOAT) {
+            for (Layer layer : agent.getOnlineDQN().getLayers()) {
+                if (!layer.hasFloatPath() && !layer.getParameterBlocks().isEmpty()) {
+                    System.err.println("Warning: float32_mlp has no effect on " + layer.getClass().getSimpleName() + ", which runs in double precision.");
+                }
+            }
+        }
+        boolean asyncTarget = args.contains("async_target");
+        agent.setAsyncTargetUpdates(asyncTarget);
 
         boolean plot = args.contains("plot");
         GraphPlotter averageRewardPlotter = null;
@@ -60,7 +75,7 @@ public class DDQNAgentTrainer {
 
         if (isVerbose) {
             System.out.println("Training agent with "+numEpisodes+" episodes, saving every "+savePeriod+" episodes.");
-            System.out.println("plot: "+plot+", show_path: "+showPath+"\n");
+            System.out.println("plot: "+plot+", show_path: "+showPath+", MLP/replay precision: "+precision+", async target updates: "+asyncTarget+"\n");
         }
 
         List<GridEnvironment> environments = new ArrayList<>();
@@ -76,7 +91,7 @@ public class DDQNAgentTrainer {
 
         // TRAINING LOOP -----------------------------------------------------------------------------------------------
 
-        PrioritizedExperienceReplay replay = new PrioritizedExperienceReplay(200000);
+        PrioritizedExperienceReplay replay = new PrioritizedExperienceReplay(200000, precision);
         int batchSize = 32;
 
         for (int episode = 1; episode <= numEpisodes; episode++) {
@@ -109,12 +124,11 @@ public class DDQNAgentTrainer {
                 if (replay.size() > batchSize) {
                     List<ExperienceReplay.Experience> batch = replay.sample(batchSize);
                     List<Integer> treeIndices = new ArrayList<>();
-                    List<Double> tdErrors = new ArrayList<>();
+                    List<Double> tdErrors = agent.trainBatch(batch);
 
-                    for (ExperienceReplay.Experience exp : batch) {
-                        double tdError = agent.train(exp.state, exp.action, exp.reward, exp.nextState, exp.done);
-                        treeIndices.add(exp.index);
-                        tdErrors.add(tdError);
+                    for (int i = 0; i < batch.size(); i++) {
+                        double tdError = tdErrors.get(i);
+                        treeIndices.add(batch.get(i).index);
 
                         totalSquaredTDError += tdError * tdError;
                         tdErrorCounter++;
@@ -128,10 +142,8 @@ public class DDQNAgentTrainer {
                 done = result.done;
                 cumulativeReward += result.reward;
 
-                MatrixDouble qValues = (MatrixDouble) agent.getOnlineDQN().getOutput(state);
-
-
                 if (isVerbose) {
+                    MatrixDouble qValues = agent.getQValues(state);
                     System.out.printf(
                             "Episode %d: Total Reward=%.6f, Average Reward=%.6f, Total Steps=%d, Epsilon=%.6f, LearningRate=%.6f, Environment=%s, Q Values: %s, maxIndex = %.0f%n",
                             episode, cumulativeReward, cumulativeReward / dqnPath.size(), environment.getCurrentSteps(), agent.getEpsilon(), agent.getLearningRate(),
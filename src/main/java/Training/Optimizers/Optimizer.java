@@ -1,10 +1,59 @@
 package Training.Optimizers;
 
 import Structures.Layer;
+import Structures.ParameterBlock;
+
+import java.util.List;
+import java.util.stream.IntStream;
 
 public abstract class Optimizer {
     protected int t = 0;
+    // Global gradient L2 norm above which clipGradients scales every gradient down; infinite disables clipping
+    protected double maxGradientNorm = Double.POSITIVE_INFINITY;
+
     public void incrementT() { t++; }
 
+    public void setMaxGradientNorm(double maxGradientNorm) {
+        if (!(maxGradientNorm > 0)) {
+            throw new IllegalArgumentException("Maximum gradient norm must be positive, got " + maxGradientNorm);
+        }
+        this.maxGradientNorm = maxGradientNorm;
+    }
+
+    /**
+     * Clips the parameter gradients of a whole network by their global L2 norm: if it exceeds the maximum, every
+     * gradient is scaled in place by the same factor, so the update keeps its direction. The layers' sums of squares
+     * are computed in parallel and added in layer order. Call once per step, before {@link #optimize(Layer)}.
+     *
+     * @return the global gradient norm before clipping
+     */
+    public double clipGradients(List<Layer> layers) {
+        double[] sums = new double[layers.size()];
+        IntStream.range(0, sums.length).parallel().forEach(i -> {
+            for (ParameterBlock block : layers.get(i).getParameterBlocks()) {
+                if (block.trainable) {
+                    sums[i] += block.gradientSumOfSquares();
+                }
+            }
+        });
+        double sumOfSquares = 0;
+        for (double sum : sums) {
+            sumOfSquares += sum;
+        }
+
+        double norm = Math.sqrt(sumOfSquares);
+        if (norm > maxGradientNorm) {
+            double scale = maxGradientNorm / norm;
+            layers.parallelStream().forEach(layer -> {
+                for (ParameterBlock block : layer.getParameterBlocks()) {
+                    if (block.trainable) {
+                        block.scaleGradients(scale);
+                    }
+                }
+            });
+        }
+        return norm;
+    }
+
     public abstract void optimize(Layer layer);
 }
@@ -0,0 +1,80 @@
+package Training.Replay;
+
+import Structures.MatrixDouble;
+import Structures.Tensor;
+import java.lang.ref.WeakReference;
+
+/**
+ * A MatrixDouble or Tensor state stored in single precision.
+ * <p>
+ * Used by the replay buffers in {@link Structures.Precision#FLOAT} mode to halve the memory
+ * taken by stored states. States are expanded back to their original type when sampled.
+ * </p>
+ */
+final class CompactState {
+    private final float[] data;
+    private final int depth, height, width;
+    private final boolean isTensor;
+
+    private CompactState(float[] data, int depth, int height, int width, boolean isTensor) {
+        this.data = data;
+        this.depth = depth;
+        this.height = height;
+        this.width = width;
+        this.isTensor = isTensor;
+    }
+
+    /**
+     * Returns a compact copy of the state, or the state itself if it is not a MatrixDouble or Tensor.
+     */
+    static Object compact(Object state) {
+        if (state instanceof MatrixDouble matrix) {
+            return new CompactState(toFloat(matrix.getData(), matrix.getRows() * matrix.getCols()), 1, matrix.getRows(), matrix.getCols(), false);
+        } else if (state instanceof Tensor tensor) {
+            return new CompactState(toFloat(tensor.getData(), tensor.size()), tensor.getDepth(), tensor.getHeight(), tensor.getWidth(), true);
+        }
+        return state;
+    }
+
+    /**
+     * Compacts the experiences added to one replay buffer. Consecutive experiences share a state (the next state of
+     * one is the state of the next), so it is compacted once and stays shared. The last next state is only weakly
+     * referenced, so the buffer never keeps a full-precision state alive.
+     */
+    static final class Compactor {
+        private WeakReference<Object> lastNextState = new WeakReference<>(null);
+        private Object lastCompactNextState;
+
+        ExperienceReplay.Experience compact(ExperienceReplay.Experience experience) {
+            Object previous = lastNextState.get();
+            Object state = previous != null && previous == experience.state ? lastCompactNextState : CompactState.compact(experience.state);
+            lastNextState = new WeakReference<>(experience.nextState);
+            lastCompactNextState = CompactState.compact(experience.nextState);
+            return new ExperienceReplay.Experience(state, experience.action, experience.reward, lastCompactNextState, experience.done);
+        }
+    }
+
+    private static float[] toFloat(double[] values, int length) {
+        float[] data = new float[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (float) values[i];
+        }
+        return data;
+    }
+
+    /**
+     * Expands a state returned by {@link #compact(Object)} back to its original type.
+     */
+    static Object expand(Object state) {
+        return state instanceof CompactState compactState ? compactState.expand() : state;
+    }
+
+    private Object expand() {
+        // Tensors and matrices share the same flat layout, so both expand through one buffer
+        double[] values = new double[data.length];
+        for (int i = 0; i < data.length; i++) {
+            values[i] = data[i];
+        }
+        return isTensor ? new Tensor(values, depth, height, width) : MatrixDouble.wrap(values, height, width);
+    }
+}
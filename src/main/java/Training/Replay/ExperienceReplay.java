@@ -1,5 +1,6 @@
 package Training.Replay;
 
+import Structures.Precision;
 import Tools.math;
 import java.util.ArrayList;
 import java.util.List;
@@ -7,9 +8,20 @@ import java.util.List;
 public class ExperienceReplay {
     private List<Experience> buffer;
     private int capacity;
+    private final Precision precision;
+
+    private final CompactState.Compactor compactor = new CompactState.Compactor();
 
     public ExperienceReplay(int capacity) {
+        this(capacity, Precision.DOUBLE);
+    }
+
+    /**
+     * @param precision {@link Precision#FLOAT} stores states in single precision, halving replay memory
+     */
+    public ExperienceReplay(int capacity, Precision precision) {
         this.capacity = capacity;
+        this.precision = precision;
         this.buffer = new ArrayList<>(capacity);
     }
 
@@ -18,6 +30,9 @@ public class ExperienceReplay {
         if (buffer.size() >= capacity) {
             buffer.removeFirst();  // Removes the first experience (FIFO)
         }
+        if (precision == Precision.FLOAT) {
+            experience = compactor.compact(experience);
+        }
         buffer.add(experience);
     }
 
@@ -25,11 +40,22 @@ public class ExperienceReplay {
     public List<Experience> sample(int batchSize) {
         List<Experience> batch = new ArrayList<>(batchSize);
         for (int i = 0; i < batchSize; i++) {
-            batch.add(buffer.get(math.randomInt(0, buffer.size() - 1)));
+            Experience experience = buffer.get(math.randomInt(0, buffer.size() - 1));
+            batch.add(precision == Precision.FLOAT ? expand(experience) : experience);
         }
         return batch;
     }
 
+    /**
+     * Returns a copy of the experience with any single-precision states expanded back to their original type.
+     */
+    static Experience expand(Experience experience) {
+        Experience expanded = new Experience(CompactState.expand(experience.state), experience.action, experience.reward,
+                CompactState.expand(experience.nextState), experience.done);
+        expanded.index = experience.index;
+        return expanded;
+    }
+
     public int getCapacity() {
         return capacity;
     }
@@ -1,5 +1,7 @@
 package Training.Replay;
 
+import Structures.Precision;
+
 import java.util.*;
 
 public class PrioritizedExperienceReplay {
@@ -10,6 +12,9 @@ public class PrioritizedExperienceReplay {
     private double beta = 0.4f;
     private double betaIncrement = 0.001f;
     private double maxPriority = 1.0f;
+    private final Precision precision;
+
+    private final CompactState.Compactor compactor = new CompactState.Compactor();
 
     // Tree structure for priority sampling
     private static class SumTree {
@@ -102,7 +107,15 @@ public class PrioritizedExperienceReplay {
     }
 
     public PrioritizedExperienceReplay(int capacity) {
+        this(capacity, Precision.DOUBLE);
+    }
+
+    /**
+     * @param precision {@link Precision#FLOAT} stores states in single precision, halving replay memory
+     */
+    public PrioritizedExperienceReplay(int capacity, Precision precision) {
         this.capacity = capacity;
+        this.precision = precision;
         this.tree = new SumTree(capacity);
     }
 
@@ -122,6 +135,9 @@ public class PrioritizedExperienceReplay {
 
     public synchronized void add(ExperienceReplay.Experience experience) {
         double priority = Math.max(this.epsilon, this.maxPriority);
+        if (precision == Precision.FLOAT) {
+            experience = compactor.compact(experience);
+        }
         this.tree.add(priority, experience);
     }
 
@@ -140,7 +156,7 @@ public class PrioritizedExperienceReplay {
             double b = segment * (i + 1);
             double s = Math.random() * (b - a) + a;
             Sample sample = this.tree.get(s);
-            batch.add(sample.experience);
+            batch.add(precision == Precision.FLOAT ? ExperienceReplay.expand(sample.experience) : sample.experience);
         }
 
         return batch;